@@ -1,5 +1,6 @@
 package genepi.imputationserver;
 
+import genepi.imputationserver.steps.ConvertSitesCommand;
 import genepi.imputationserver.steps.EstimateAncestryCommand;
 import genepi.imputationserver.steps.InputValidationCommand;
 import genepi.imputationserver.steps.QualityControlCommand;
@@ -39,6 +40,7 @@ public class App {
 		commandLine.addSubcommand("run-qc", new QualityControlCommand());
 		commandLine.addSubcommand("estimate-ancestry", new EstimateAncestryCommand());
 		commandLine.addSubcommand("prepare-trace", new PrepareTraceCommand());
+		commandLine.addSubcommand("convert-sites", new ConvertSitesCommand());
 		commandLine.setExecutionStrategy(new CommandLine.RunLast());
 		int result = commandLine.execute(args);
 		System.exit(result);
@@ -0,0 +1,46 @@
+package genepi.imputationserver.steps;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import genepi.imputationserver.steps.fastqc.legend.BinarySitesFile;
+import genepi.imputationserver.util.OutputWriter;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+@Command
+public class ConvertSitesCommand implements Callable<Integer> {
+
+	@Parameters(description = "Sites files, one chromosome per file")
+	private String[] files;
+
+	@Option(names = "--report", description = "Cloudgene Report Output", required = false)
+	private String report = null;
+
+	private OutputWriter output = null;
+
+	@Override
+	public Integer call() throws Exception {
+
+		if (report != null) {
+			output = new OutputWriter(report);
+		} else {
+			output = new OutputWriter();
+		}
+
+		for (String file : files) {
+			String binaryFile = file + BinarySitesFile.EXTENSION;
+			try {
+				BinarySitesFile.convert(file, binaryFile);
+			} catch (IOException e) {
+				output.error("Unable to convert " + file + ":", e);
+				return -1;
+			}
+			output.message("Converted " + file + " to " + binaryFile);
+		}
+		return 0;
+
+	}
+
+}
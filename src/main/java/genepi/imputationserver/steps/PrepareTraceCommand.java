@@ -2,7 +2,7 @@ package genepi.imputationserver.steps;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import genepi.imputationserver.steps.ancestry.TraceInputValidation;
@@ -11,11 +11,10 @@ import genepi.imputationserver.steps.fastqc.ITask;
 import genepi.imputationserver.steps.fastqc.LiftOverTask;
 import genepi.imputationserver.steps.fastqc.TaskResults;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.vcf.VcfHeader;
 import genepi.imputationserver.util.OutputWriter;
 import genepi.io.FileUtil;
 import genepi.io.text.LineWriter;
-import htsjdk.variant.vcf.VCFFileReader;
-import htsjdk.variant.vcf.VCFHeader;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -108,10 +107,7 @@ public class PrepareTraceCommand implements Callable<Integer> {
 			}
 
 			// read number of samples from first vcf file
-			VCFFileReader reader = new VCFFileReader(new File(mergedFile), false);
-			VCFHeader header = reader.getFileHeader();
-			reader.close();
-			ArrayList<String> sampels = header.getSampleNamesInOrder();
+			List<String> sampels = VcfHeader.read(mergedFile).getSamples();
 			int nIndividuals = sampels.size();
 			int batch = 0;
 			int start = 1;
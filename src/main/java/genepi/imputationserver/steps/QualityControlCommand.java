@@ -3,14 +3,18 @@ package genepi.imputationserver.steps;
 import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.Callable;
 import genepi.imputationserver.steps.fastqc.ITask;
 import genepi.imputationserver.steps.fastqc.LiftOverTask;
+import genepi.imputationserver.steps.fastqc.PopulationSummary;
 import genepi.imputationserver.steps.fastqc.RangeEntry;
 import genepi.imputationserver.steps.fastqc.StatisticsTask;
 import genepi.imputationserver.steps.fastqc.TaskResults;
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
 import genepi.imputationserver.util.OutputWriter;
 import genepi.imputationserver.util.RefPanel;
 import genepi.imputationserver.util.RefPanelPopulation;
@@ -61,6 +65,42 @@ public class QualityControlCommand implements Callable<Integer> {
 	@Option(names = "--no-index", description = "Create no tabix index during validation", required = false)
 	private boolean noIndex = false;
 
+	@Option(names = "--decompression-threads", description = "Threads used to decompress bgzipped VCF files", required = false)
+	private int decompressionThreads = 1;
+
+	@Option(names = "--threads", description = "Number of VCF files processed in parallel", required = false)
+	private int threads = 1;
+
+	@Option(names = "--split-files", description = "Process ranges of indexed VCF files in parallel", required = false)
+	private boolean splitFiles = false;
+
+	@Option(names = "--sites-memory", description = "Memory in MB used to load the reference sites of a chromosome, shared by all threads (0 = disabled)", required = false)
+	private int sitesMemory = 0;
+
+	@Option(names = "--sites-cache", description = "Directory to cache binary reference sites between jobs", required = false)
+	private String sitesCache = null;
+
+	@Option(names = "--sites-cache-size", description = "Maximal size of the sites cache in MB", required = false)
+	private int sitesCacheSize = 10240;
+
+	@Option(names = "--sites-filter", description = "Skip lookups of positions not in the reference panel with a filter stored next to the sites files", required = false)
+	private boolean sitesFilter = false;
+
+	@Option(names = "--async-chunk-writer", description = "Compress chunks on a separate thread per open chunk", required = false)
+	private boolean asyncChunkWriter = false;
+
+	@Option(names = "--chunk-compression", description = "Compression of chunk files: store, fast, default or best", required = false)
+	private String chunkCompression = BGzipLineWriter.COMPRESSION_DEFAULT;
+
+	@Option(names = "--chunk-index", description = "Write a tabix index of each chunk while it is written", required = false)
+	private boolean chunkIndex = false;
+
+	@Option(names = "--shared-chunk-file", description = "Write the records of all passed chunks of a chromosome once to one indexed file", required = false)
+	private boolean sharedChunkFile = false;
+
+	@Option(names = "--all-populations", description = "Compare allele frequencies with all populations of the reference panel", required = false)
+	private boolean allPopulations = false;
+
 	private OutputWriter output = null;
 
 	private RefPanel panel = null;
@@ -126,6 +166,13 @@ public class QualityControlCommand implements Callable<Integer> {
 			return 1;
 		}
 
+		try {
+			BGzipLineWriter.getCompressionLevel(chunkCompression);
+		} catch (IllegalArgumentException e) {
+			output.error(e.getMessage());
+			return 1;
+		}
+
 		Collections.sort(files);
 		String[] vcfFilenames = files.toArray(new String[files.size()]);
 
@@ -203,6 +250,16 @@ public class QualityControlCommand implements Callable<Integer> {
 		}
 
 		task.setCreateIndex(!noIndex);
+		task.setDecompressionThreads(decompressionThreads);
+		task.setThreads(threads);
+		task.setSplitFiles(splitFiles);
+		task.setSitesMemoryLimit(sitesMemory * 1024L * 1024L);
+		task.setSitesCache(sitesCache, sitesCacheSize * 1024L * 1024L);
+		task.setSitesFilter(sitesFilter);
+		task.setAsyncChunkWriter(asyncChunkWriter);
+		task.setChunkCompression(chunkCompression);
+		task.setChunkIndex(chunkIndex);
+		task.setSharedChunkFile(sharedChunkFile);
 		task.setSitesFile(panel.getSites());
 		task.setRefSamples(refSamples);
 		task.setMafFile(mafOutput);
@@ -234,12 +291,41 @@ public class QualityControlCommand implements Callable<Integer> {
 			output.log("Reference Panel Ranges: genome-wide");
 		}
 
+		if (allPopulations && panel.getPopulations() != null) {
+			Map<String, Integer> populationSamples = new LinkedHashMap<String, Integer>();
+			for (RefPanelPopulation pop : panel.getPopulations()) {
+				if (pop.getSamples() > 0) {
+					populationSamples.put(pop.getId(), pop.getSamples());
+				}
+			}
+			task.setPopulationSamples(populationSamples);
+		}
+
 		TaskResults results = runTask(output, task);
 
 		if (!results.isSuccess()) {
 			return false;
 		}
 
+		PopulationSummary populationSummary = task.getPopulationSummary();
+		if (populationSummary != null) {
+			List<String> populationText = new Vector<String>();
+			populationText.add("<b>Allele frequencies by population:</b>");
+			String[] populations = populationSummary.getPopulations();
+			for (int i = 0; i < populations.length; i++) {
+				if (populationSummary.getSnps(i) > 0) {
+					populationText.add(populations[i] + ": mean chi-square "
+							+ StringUtils.format(populationSummary.getMeanChisq(i)) + ", outliers "
+							+ StringUtils.format(populationSummary.getOutliers(i)));
+				}
+			}
+			int best = populationSummary.getBestPopulation();
+			if (best != -1) {
+				populationText.add("Best matching population: " + populations[best]);
+			}
+			output.message(populationText);
+		}
+
 		List<String> text = new Vector<String>();
 
 		text.add("<b>Statistics:</b>");
@@ -395,4 +481,48 @@ public class QualityControlCommand implements Callable<Integer> {
 	public void setNoIndex(boolean noIndex) {
 		this.noIndex = noIndex;
 	}
+
+	public void setDecompressionThreads(int decompressionThreads) {
+		this.decompressionThreads = decompressionThreads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setSplitFiles(boolean splitFiles) {
+		this.splitFiles = splitFiles;
+	}
+
+	public void setSitesMemory(int sitesMemory) {
+		this.sitesMemory = sitesMemory;
+	}
+
+	public void setSitesCache(String sitesCache) {
+		this.sitesCache = sitesCache;
+	}
+
+	public void setSitesFilter(boolean sitesFilter) {
+		this.sitesFilter = sitesFilter;
+	}
+
+	public void setAsyncChunkWriter(boolean asyncChunkWriter) {
+		this.asyncChunkWriter = asyncChunkWriter;
+	}
+
+	public void setChunkCompression(String chunkCompression) {
+		this.chunkCompression = chunkCompression;
+	}
+
+	public void setChunkIndex(boolean chunkIndex) {
+		this.chunkIndex = chunkIndex;
+	}
+
+	public void setSharedChunkFile(boolean sharedChunkFile) {
+		this.sharedChunkFile = sharedChunkFile;
+	}
+
+	public void setAllPopulations(boolean allPopulations) {
+		this.allPopulations = allPopulations;
+	}
 }
@@ -0,0 +1,123 @@
+package genepi.imputationserver.steps.fastqc;
+
+import genepi.io.table.writer.CsvTableWriter;
+
+import java.util.Map;
+
+/**
+ * Sums the chi-square values of the allele-frequency check for several
+ * reference populations. The population with the lowest mean chi-square fits
+ * the study best.
+ */
+public class PopulationSummary {
+
+	// sites with a larger chi-square are counted as outliers
+	private static final double OUTLIER_CHISQ = 300;
+
+	private String[] populations;
+
+	private int[] samples;
+
+	private long[] snps;
+
+	private double[] chisqSums;
+
+	private long[] outliers;
+
+	public PopulationSummary(Map<String, Integer> populationSamples) {
+		int size = populationSamples.size();
+		populations = new String[size];
+		samples = new int[size];
+		snps = new long[size];
+		chisqSums = new double[size];
+		outliers = new long[size];
+		int i = 0;
+		for (Map.Entry<String, Integer> entry : populationSamples.entrySet()) {
+			populations[i] = entry.getKey();
+			samples[i] = entry.getValue();
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the index of the population or -1 if it is not summarized.
+	 */
+	public int indexOf(String population) {
+		for (int i = 0; i < populations.length; i++) {
+			if (populations[i].equalsIgnoreCase(population)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getSamples(int index) {
+		return samples[index];
+	}
+
+	public void add(int index, double chisq) {
+		if (Double.isNaN(chisq)) {
+			return;
+		}
+		snps[index]++;
+		chisqSums[index] += chisq;
+		if (chisq > OUTLIER_CHISQ) {
+			outliers[index]++;
+		}
+	}
+
+	public void merge(PopulationSummary other) {
+		for (int i = 0; i < other.populations.length; i++) {
+			int index = indexOf(other.populations[i]);
+			if (index != -1) {
+				snps[index] += other.snps[i];
+				chisqSums[index] += other.chisqSums[i];
+				outliers[index] += other.outliers[i];
+			}
+		}
+	}
+
+	public String[] getPopulations() {
+		return populations;
+	}
+
+	public long getSnps(int index) {
+		return snps[index];
+	}
+
+	public double getMeanChisq(int index) {
+		return snps[index] > 0 ? chisqSums[index] / snps[index] : Double.NaN;
+	}
+
+	public long getOutliers(int index) {
+		return outliers[index];
+	}
+
+	/**
+	 * Returns the index of the population with the lowest mean chi-square or
+	 * -1 if no population has checked sites.
+	 */
+	public int getBestPopulation() {
+		int best = -1;
+		for (int i = 0; i < populations.length; i++) {
+			if (snps[i] > 0 && (best == -1 || getMeanChisq(i) < getMeanChisq(best))) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	public void write(String filename) {
+		CsvTableWriter writer = new CsvTableWriter(filename, '\t', false);
+		writer.setColumns(new String[] { "POPULATION", "SNPS", "MEAN_CHISQ", "OUTLIERS" });
+		for (int i = 0; i < populations.length; i++) {
+			writer.setString("POPULATION", populations[i]);
+			writer.setString("SNPS", String.valueOf(snps[i]));
+			writer.setString("MEAN_CHISQ", snps[i] > 0 ? Double.toString(getMeanChisq(i)) : "NA");
+			writer.setString("OUTLIERS", String.valueOf(outliers[i]));
+			writer.next();
+		}
+		writer.close();
+	}
+
+}
@@ -0,0 +1,218 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import genepi.imputationserver.steps.vcf.AsyncBGzipLineWriter;
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.ByteLineReader;
+import genepi.imputationserver.steps.vcf.ILineWriter;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.VcfChunk;
+import genepi.io.FileUtil;
+
+/**
+ * Writes all chunks of a chromosome to one indexed file with each record
+ * stored once. QC results of a chunk are known after its last record, so
+ * records are collected in a temporary file first. close copies the records
+ * of passed chunks and sets the offsets of these chunks: the ranges of a
+ * chunk contain exactly the records of its own chunk file.
+ */
+public class SharedChunkFile {
+
+	// records are read once more, so the temporary file is compressed fast
+	private static final int RECORDS_LEVEL = 1;
+
+	private String filename;
+
+	private String recordsFilename;
+
+	private int level;
+
+	private List<String> header;
+
+	private ILineWriter records;
+
+	// number of the last record of the input file and of the temporary file
+	private long lastRecord = -1;
+
+	private int count = 0;
+
+	private Map<VcfChunk, ChunkRecords> chunks = new IdentityHashMap<VcfChunk, ChunkRecords>();
+
+	// records of a chunk in the temporary file and its ranges in the shared file
+	private static class ChunkRecords {
+
+		private int first = -1;
+
+		private int last = -1;
+
+		// ranges [from, to) of records of other chunks between first and last
+		private List<int[]> skipped = new ArrayList<int[]>();
+
+		private int nextSkipped = 0;
+
+		private List<long[]> positions = new ArrayList<long[]>();
+
+		private long lastLine = -1;
+
+		// records are tested in ascending order
+		private boolean contains(int record) {
+			if (record < first || record > last) {
+				return false;
+			}
+			while (nextSkipped < skipped.size() && skipped.get(nextSkipped)[1] <= record) {
+				nextSkipped++;
+			}
+			return nextSkipped == skipped.size() || skipped.get(nextSkipped)[0] > record;
+		}
+
+		// a range ends when a line of another chunk was written in between
+		private void add(long line, long start, long end) {
+			if (line == lastLine + 1 && !positions.isEmpty()) {
+				positions.get(positions.size() - 1)[1] = end;
+			} else {
+				positions.add(new long[] { start, end });
+			}
+			lastLine = line;
+		}
+
+	}
+
+	public SharedChunkFile(String filename, int level, boolean async, List<String> header) throws IOException {
+		this.filename = filename;
+		this.recordsFilename = filename + ".records";
+		this.level = level;
+		this.header = header;
+		if (async) {
+			records = new AsyncBGzipLineWriter(recordsFilename, RECORDS_LEVEL, false);
+		} else {
+			records = new BGzipLineWriter(recordsFilename, RECORDS_LEVEL, false);
+		}
+	}
+
+	/**
+	 * Adds a record to a chunk. record is the number of the record in the
+	 * input file, a record added to several chunks is stored once.
+	 */
+	public void write(MinimalVariantContext snp, long record, VcfChunk chunk) throws IOException {
+
+		if (record != lastRecord) {
+			records.write(snp);
+			lastRecord = record;
+			count++;
+		}
+
+		int index = count - 1;
+		ChunkRecords chunkRecords = chunks.get(chunk);
+		if (chunkRecords == null) {
+			chunkRecords = new ChunkRecords();
+			chunks.put(chunk, chunkRecords);
+		}
+		if (chunkRecords.first == -1) {
+			chunkRecords.first = index;
+		} else if (index > chunkRecords.last + 1) {
+			chunkRecords.skipped.add(new int[] { chunkRecords.last + 1, index });
+		}
+		chunkRecords.last = index;
+
+	}
+
+	/**
+	 * Writes the indexed file with the records of the passed chunks and sets
+	 * their offsets. Records of excluded chunks are dropped.
+	 */
+	public void close(List<VcfChunk> passedChunks) throws IOException {
+
+		records.close();
+
+		List<ChunkRecords> passed = new ArrayList<ChunkRecords>();
+		for (VcfChunk chunk : passedChunks) {
+			ChunkRecords chunkRecords = chunks.get(chunk);
+			if (chunkRecords != null) {
+				passed.add(chunkRecords);
+			}
+		}
+		Collections.sort(passed, new Comparator<ChunkRecords>() {
+			@Override
+			public int compare(ChunkRecords a, ChunkRecords b) {
+				return Integer.compare(a.first, b.first);
+			}
+		});
+
+		BGzipLineWriter writer = new BGzipLineWriter(filename, level, true);
+		ByteLineReader reader = new ByteLineReader(FileUtil.decompressStream(new FileInputStream(recordsFilename)));
+		try {
+
+			for (String headerLine : header) {
+				writer.write(headerLine);
+			}
+
+			long lines = 0;
+			int first = 0;
+			for (int record = 0; reader.next(); record++) {
+				while (first < passed.size() && passed.get(first).last < record) {
+					first++;
+				}
+				boolean written = false;
+				for (int i = first; i < passed.size() && passed.get(i).first <= record; i++) {
+					ChunkRecords chunkRecords = passed.get(i);
+					if (!chunkRecords.contains(record)) {
+						continue;
+					}
+					if (!written) {
+						writer.write(reader.getBuffer(), reader.getOffset(), reader.getLength());
+						lines++;
+						written = true;
+					}
+					chunkRecords.add(lines, writer.getLineStart(), writer.getPosition());
+				}
+			}
+
+		} finally {
+			reader.close();
+			writer.close();
+		}
+
+		// offsets are known when all blocks are written
+		for (VcfChunk chunk : passedChunks) {
+			ChunkRecords chunkRecords = chunks.get(chunk);
+			if (chunkRecords == null) {
+				chunk.setOffsets(new long[0]);
+				continue;
+			}
+			long[] offsets = new long[chunkRecords.positions.size() * 2];
+			for (int i = 0; i < chunkRecords.positions.size(); i++) {
+				long[] range = chunkRecords.positions.get(i);
+				offsets[i * 2] = writer.getVirtualOffset(range[0]);
+				offsets[i * 2 + 1] = writer.getVirtualOffset(range[1]);
+			}
+			chunk.setOffsets(offsets);
+		}
+
+		new File(recordsFilename).delete();
+
+	}
+
+	/**
+	 * Closes and deletes all files, e.g. after a failed validation.
+	 */
+	public void delete() {
+		try {
+			records.close();
+		} catch (IOException e) {
+			// file is deleted anyway
+		}
+		new File(recordsFilename).delete();
+		new File(filename).delete();
+		new File(filename + ".tbi").delete();
+	}
+
+}
@@ -1,14 +1,20 @@
 package genepi.imputationserver.steps.fastqc;
 
 import genepi.imputationserver.steps.fastqc.io.*;
+import genepi.imputationserver.steps.fastqc.legend.BinarySitesFile;
+import genepi.imputationserver.steps.fastqc.legend.BinarySitesFileReader;
+import genepi.imputationserver.steps.fastqc.legend.SitesCache;
+import genepi.imputationserver.steps.fastqc.legend.SitesEntries;
 import genepi.imputationserver.steps.fastqc.legend.SitesEntry;
 import genepi.imputationserver.steps.fastqc.legend.SitesFileReader;
 import genepi.imputationserver.steps.vcf.*;
 import genepi.imputationserver.util.GenomicTools;
-import genepi.imputationserver.util.StringUtils;
+import genepi.imputationserver.util.RefPanel;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
 import genepi.io.text.LineWriter;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.tabix.TabixIndex;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -21,13 +27,25 @@ import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderVersion;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class StatisticsTask implements ITask {
 
@@ -35,6 +53,13 @@ public class StatisticsTask implements ITask {
 	public static final String X_PAR2 = "X.PAR2";
 	public static final String X_NON_PAR = "X.nonPAR";
 
+	// largest position supported by tabix
+	private static final int MAX_POSITION = 1 << 29;
+
+	private static final int ALL_CHUNKS_FIRST = Integer.MIN_VALUE;
+
+	private static final int ALL_CHUNKS_LAST = Integer.MAX_VALUE;
+
 	private String sitesFile;
 	private int refSamples;
 	private String build;
@@ -51,6 +76,12 @@ public class StatisticsTask implements ITask {
 	// input variables
 	private String population;
 	private boolean alleleFrequencyCheck = true;
+
+	// reference samples of all populations checked in the same pass, null to disable
+	private Map<String, Integer> populationSamples = null;
+	private PopulationSummary populationSummary;
+	// summary index of each population of the current sites file
+	private int[] populationIndices;
 	private int chunkSize;
 	private int phasingWindow;
 	private String[] vcfFilenames;
@@ -99,6 +130,70 @@ public class StatisticsTask implements ITask {
 
 	private boolean createIndex = true;
 
+	private int decompressionThreads = 1;
+
+	// number of files or file ranges processed in parallel
+	private int threads = 1;
+
+	// bytes used to preload the sites of a chromosome by all threads, 0 to disable
+	private long sitesMemoryLimit = 0;
+
+	// directory with binary sites files shared by all jobs, null to disable
+	private String sitesCacheDir = null;
+
+	private long sitesCacheSize = 0;
+
+	// answer lookups of positions not in the sites file by a filter
+	private boolean sitesFilter = false;
+
+	// compress chunks on a writer thread per open chunk
+	private boolean asyncChunkWriter = false;
+
+	// store, fast, default or best
+	private String chunkCompression = BGzipLineWriter.COMPRESSION_DEFAULT;
+
+	// write a tabix index of each chunk while it is written
+	private boolean chunkIndex = false;
+
+	// write all chunks of a chromosome once to an indexed file instead of a file per chunk
+	private boolean sharedChunkFile = false;
+
+	private SharedChunkFile sharedFile;
+
+	// number of the current record
+	private long record = 0;
+
+	// split indexed files into ranges of chunks
+	private boolean splitFiles = false;
+
+	// range of chunks processed by a task created by splitFile
+	private int firstChunk = ALL_CHUNKS_FIRST;
+
+	private int lastChunk = ALL_CHUNKS_LAST;
+
+	private long startOffset = -1;
+
+	private FileResult rangeResult;
+
+	// state of a processed file or range
+	private static class FileResult {
+
+		private VcfFileBuilder builder;
+
+		private List<String> header;
+
+		private String contig;
+
+		private List<VcfChunk> passedChunks = new Vector<VcfChunk>();
+
+		// all chunks written for the file or range, deleted when it fails
+		private List<VcfChunk> createdChunks = new Vector<VcfChunk>();
+
+		// raw chrX file that has to be split before it is processed
+		private boolean chrX = false;
+
+	}
+
 	@Override
 	public String getName() {
 		return "Calculating QC Statistics";
@@ -106,6 +201,10 @@ public class StatisticsTask implements ITask {
 
 	public TaskResults run() throws IOException, InterruptedException {
 
+		if (threads > 1 && (vcfFilenames.length > 1 || splitFiles)) {
+			return runParallel();
+		}
+
 		TaskResults qcObject = new TaskResults();
 
 		qcObject.setMessage("");
@@ -128,92 +227,425 @@ public class StatisticsTask implements ITask {
 		String typedOnlyFile = FileUtil.path(statDir, "snps-typed-only.txt");
 		typedOnlyWriter = new TypedOnlySnpsWriter(typedOnlyFile);
 
+		if (populationSamples != null) {
+			populationSummary = new PopulationSummary(populationSamples);
+		}
+
 		// chrX haploid samples
 		HashSet<String> hapSamples = new HashSet<String>();
 
+		try {
+			processFiles(hapSamples);
+		} catch (IOException e) {
+			// no partial statistics are left when a file fails validation
+			closeStatistics();
+			new File(mafFile).delete();
+			new File(excludedSnpsFile).delete();
+			new File(excludedChunkFile).delete();
+			new File(chrXInfoFile).delete();
+			new File(typedOnlyFile).delete();
+			throw e;
+		}
+
+		closeStatistics();
+
+		if (populationSummary != null) {
+			populationSummary.write(FileUtil.path(statDir, "populations.txt"));
+		}
+
+		qcObject.setSuccess(true);
+
+		return qcObject;
+
+	}
+
+	private void processFiles(HashSet<String> hapSamples) throws IOException, InterruptedException {
+
 		for (String vcfFilename : vcfFilenames) {
 
-			VcfFile myvcfFile = VcfFileUtil.load(vcfFilename, chunkSize, createIndex);
+			if (firstChunk != ALL_CHUNKS_FIRST || lastChunk != ALL_CHUNKS_LAST) {
 
-			String chromosome = myvcfFile.getChromosome();
+				// range of a file, metafile is written by the parent task
+				FastVCFFileReader vcfReader;
+				if (startOffset < 0) {
+					vcfReader = new FastVCFFileReader(vcfFilename, decompressionThreads);
+				} else {
+					vcfReader = new FastVCFFileReader(vcfFilename, startOffset);
+				}
+				rangeResult = processRecords(vcfReader, vcfFilename, firstChunk, lastChunk, false);
 
-			if (VcfFileUtil.isChrMT(chromosome)) {
-				myvcfFile.setPhased(true);
-			}
+			} else if (processFile(vcfFilename, true) == null) {
 
-			if (VcfFileUtil.isChrX(chromosome)) {
+				VcfFile myvcfFile = VcfFileUtil.load(vcfFilename, chunkSize, createIndex);
 
 				// split to PAR1, PAR2 and nonPAR
 				List<String> splits = prepareChrX(myvcfFile.getVcfFilename(), myvcfFile.isPhased(), hapSamples);
 
 				for (String split : splits) {
-					VcfFile _myvcfFile = VcfFileUtil.load(split, chunkSize, createIndex);
-
-					_myvcfFile.setChrX(true);
-
 					// chrX
-					processFile(_myvcfFile);
+					processFile(split);
 				}
-			} else {
-				// chr1-22
-				processFile(myvcfFile);
-
 			}
 		}
 
+	}
+
+	private void closeStatistics() throws IOException {
 		mafWriter.close();
 		excludedChunkWriter.close();
 		chrXInfoWriter.close();
 		typedOnlyWriter.close();
 		excludedSnpsWriter.close();
+	}
 
-		qcObject.setSuccess(true);
+	/**
+	 * Runs every file as its own task with private counters and statistics
+	 * files. Counters are summed and statistics files are concatenated in the
+	 * order of vcfFilenames, so the output equals the output of a serial run.
+	 */
+	private TaskResults runParallel() throws IOException, InterruptedException {
+
+		String partsDir = FileUtil.path(statDir, "parts");
 
+		try {
+			return runParallel(partsDir);
+		} finally {
+			// statistics of the tasks are removed after failed runs too
+			FileUtil.deleteDirectory(partsDir);
+		}
+
+	}
+
+	private TaskResults runParallel(String partsDir) throws IOException, InterruptedException {
+
+		List<StatisticsTask> tasks = new Vector<StatisticsTask>();
+		List<List<StatisticsTask>> rangeTasks = new Vector<List<StatisticsTask>>();
+		List<Future<TaskResults>> results = new Vector<Future<TaskResults>>();
+
+		for (int i = 0; i < vcfFilenames.length; i++) {
+			String fileDir = FileUtil.path(partsDir, String.valueOf(i));
+			// a shared chunk file is written by one task
+			List<StatisticsTask> ranges = splitFiles && !sharedChunkFile ? splitFile(vcfFilenames[i], fileDir) : null;
+			if (ranges == null) {
+				tasks.add(createFileTask(vcfFilenames[i], fileDir));
+				rangeTasks.add(null);
+			} else {
+				tasks.addAll(ranges);
+				rangeTasks.add(ranges);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+
+			for (final StatisticsTask task : tasks) {
+				FileUtil.createDirectory(task.statDir);
+				results.add(executor.submit(new Callable<TaskResults>() {
+					@Override
+					public TaskResults call() throws Exception {
+						return task.run();
+					}
+				}));
+			}
+
+			// report the error of the first failed file
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					// chunks of other ranges of a failed file are removed too
+					executor.shutdown();
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+					for (List<StatisticsTask> ranges : rangeTasks) {
+						if (ranges != null && ranges.contains(tasks.get(i))) {
+							for (StatisticsTask range : ranges) {
+								if (range.rangeResult != null) {
+									range.deleteChunks(range.rangeResult.createdChunks);
+								}
+							}
+						}
+					}
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof InterruptedException) {
+						throw (InterruptedException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new IOException(cause);
+				}
+			}
+
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (populationSamples != null) {
+			populationSummary = new PopulationSummary(populationSamples);
+		}
+
+		List<String> mafFiles = new Vector<String>();
+		List<String> excludedSnpsFiles = new Vector<String>();
+		List<String> excludedChunkFiles = new Vector<String>();
+		List<String> chrXInfoFiles = new Vector<String>();
+		List<String> typedOnlyFiles = new Vector<String>();
+
+		for (StatisticsTask task : tasks) {
+			merge(task);
+			mafFiles.add(task.mafFile);
+			excludedSnpsFiles.add(FileUtil.path(task.statDir, "snps-excluded.txt"));
+			excludedChunkFiles.add(FileUtil.path(task.statDir, "chunks-excluded.txt"));
+			chrXInfoFiles.add(FileUtil.path(task.statDir, "chrX-info.txt"));
+			typedOnlyFiles.add(FileUtil.path(task.statDir, "snps-typed-only.txt"));
+		}
+
+		concatTables(mafFiles, mafFile);
+		concatTables(excludedSnpsFiles, FileUtil.path(statDir, "snps-excluded.txt"));
+		concatTables(excludedChunkFiles, FileUtil.path(statDir, "chunks-excluded.txt"));
+		concatTables(chrXInfoFiles, FileUtil.path(statDir, "chrX-info.txt"));
+		concatTables(typedOnlyFiles, FileUtil.path(statDir, "snps-typed-only.txt"));
+
+		// metafiles of split files
+		for (int i = 0; i < vcfFilenames.length; i++) {
+			if (rangeTasks.get(i) != null) {
+				List<FileResult> fileResults = new Vector<FileResult>();
+				for (StatisticsTask task : rangeTasks.get(i)) {
+					fileResults.add(task.rangeResult);
+				}
+				finishFile(vcfFilenames[i], fileResults);
+			}
+		}
+
+		if (populationSummary != null) {
+			populationSummary.write(FileUtil.path(statDir, "populations.txt"));
+		}
+
+		TaskResults qcObject = new TaskResults();
+		qcObject.setMessage("");
+		qcObject.setSuccess(true);
 		return qcObject;
 
 	}
 
-	public void processFile(VcfFile myvcfFile) throws IOException, InterruptedException {
+	// serial task for one file with the same settings, writing statistics to taskDir
+	private StatisticsTask createFileTask(String vcfFilename, String taskDir) {
+		StatisticsTask task = new StatisticsTask();
+		task.sitesFile = sitesFile;
+		task.refSamples = refSamples;
+		task.build = build;
+		task.sampleCallrate = sampleCallrate;
+		task.minSnps = minSnps;
+		task.minReferenceOverlap = minReferenceOverlap;
+		task.mixedGenotypeschrX = mixedGenotypeschrX;
+		task.chunkFileDir = chunkFileDir;
+		task.chunksDir = chunksDir;
+		task.statDir = taskDir;
+		task.mafFile = FileUtil.path(taskDir, "maf.txt");
+		task.population = population;
+		task.alleleFrequencyCheck = alleleFrequencyCheck;
+		task.populationSamples = populationSamples;
+		task.chunkSize = chunkSize;
+		task.phasingWindow = phasingWindow;
+		task.vcfFilenames = new String[] { vcfFilename };
+		task.ranges = ranges;
+		task.createIndex = createIndex;
+		task.decompressionThreads = decompressionThreads;
+		// up to threads tasks hold a sites reader at the same time
+		task.sitesMemoryLimit = sitesMemoryLimit / threads;
+		task.sitesCacheDir = sitesCacheDir;
+		task.sitesCacheSize = sitesCacheSize;
+		task.sitesFilter = sitesFilter;
+		task.asyncChunkWriter = asyncChunkWriter;
+		task.chunkCompression = chunkCompression;
+		task.chunkIndex = chunkIndex;
+		task.sharedChunkFile = sharedChunkFile;
+		return task;
+	}
+
+	private void merge(StatisticsTask task) {
+		overallChunks += task.overallChunks;
+		notFoundInLegend += task.notFoundInLegend;
+		foundInLegend += task.foundInLegend;
+		alleleMismatch += task.alleleMismatch;
+		alleleSwitch += task.alleleSwitch;
+		strandFlipSimple += task.strandFlipSimple;
+		complicatedGenotypes += task.complicatedGenotypes;
+		strandFlipAndAlleleSwitch += task.strandFlipAndAlleleSwitch;
+		match += task.match;
+		lowCallRate += task.lowCallRate;
+		filtered += task.filtered;
+		overallSnps += task.overallSnps;
+		monomorphic += task.monomorphic;
+		alternativeAlleles += task.alternativeAlleles;
+		noSnps += task.noSnps;
+		duplicates += task.duplicates;
+		filterFlag += task.filterFlag;
+		invalidAlleles += task.invalidAlleles;
+		multiallelicSites += task.multiallelicSites;
+		removedChunksSnps += task.removedChunksSnps;
+		removedChunksOverlap += task.removedChunksOverlap;
+		removedChunksCallRate += task.removedChunksCallRate;
+		chrXMissingRate |= task.chrXMissingRate;
+		chrXPloidyError |= task.chrXPloidyError;
+		if (populationSummary != null) {
+			populationSummary.merge(task.populationSummary);
+		}
+	}
 
-		Map<Integer, VcfChunk> chunks = new ConcurrentHashMap<Integer, VcfChunk>();
+	// writes all existing tables to output, the header line is kept from the first one only
+	private void concatTables(List<String> tables, String output) throws IOException {
 
-		String filename = myvcfFile.getVcfFilename();
+		OutputStream out = null;
 
-		FastVCFFileReader vcfReader = new FastVCFFileReader(filename);
-		List<String> header = vcfReader.getFileHeader();
+		for (String table : tables) {
 
-		String contig = myvcfFile.getChromosome();
+			if (!new File(table).exists()) {
+				continue;
+			}
 
-		// set X region in filename
-		if (VcfFileUtil.isChrX(myvcfFile.getChromosome())) {
-			contig = X_NON_PAR;
-			if (filename.contains(X_PAR1)) {
-				contig = X_PAR1;
-			} else if (filename.contains(X_PAR2)) {
-				contig = X_PAR2;
+			InputStream in = new BufferedInputStream(new FileInputStream(table));
+			if (out == null) {
+				out = new BufferedOutputStream(new FileOutputStream(output));
+			} else {
+				int b;
+				while ((b = in.read()) != -1 && b != '\n') {
+					// skip header
+				}
+			}
+
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
 			}
+			in.close();
+
 		}
 
-		String metafile = FileUtil.path(chunkFileDir, contig);
-		LineWriter metafileWriter = new LineWriter(metafile);
-		SitesFileReader legendReader = getReader(myvcfFile.getChromosome());
+		if (out != null) {
+			out.close();
+		}
+
+	}
+
+	/**
+	 * Validates the file, collects its VcfFile properties and writes the
+	 * chunks in a single pass. Files without records fail with the same error
+	 * as VcfFileUtil.load.
+	 */
+	public VcfFile processFile(String filename) throws IOException, InterruptedException {
+		return processFile(filename, false);
+	}
+
+	// returns null for a raw chrX file if splitChrX is set, it is detected at its first record
+	private VcfFile processFile(String filename, boolean splitChrX) throws IOException, InterruptedException {
+
+		FastVCFFileReader vcfReader = new FastVCFFileReader(filename, decompressionThreads);
+		FileResult result = processRecords(vcfReader, filename, ALL_CHUNKS_FIRST, ALL_CHUNKS_LAST, splitChrX);
+		if (result.chrX) {
+			return null;
+		}
+
+		List<FileResult> results = new Vector<FileResult>();
+		results.add(result);
+		return finishFile(filename, results);
+
+	}
+
+	/**
+	 * Processes the records of the chunks firstChunk to lastChunk. Records in
+	 * the phasing window of neighbouring chunks are read too, so every chunk
+	 * gets the same records as in a run over the whole file. When a record
+	 * fails validation, all chunks written so far are deleted.
+	 */
+	private FileResult processRecords(FastVCFFileReader vcfReader, String filename, int firstChunk, int lastChunk,
+			boolean splitChrX) throws IOException, InterruptedException {
+
+		FileResult result = new FileResult();
+		try {
+			processRecords(vcfReader, filename, firstChunk, lastChunk, splitChrX, result);
+		} catch (IOException e) {
+			vcfReader.close();
+			deleteChunks(result.createdChunks);
+			throw e;
+		}
+		return result;
+
+	}
+
+	private void processRecords(FastVCFFileReader vcfReader, String filename, int firstChunk, int lastChunk,
+			boolean splitChrX, FileResult result) throws IOException, InterruptedException {
+
+		// sorted, chunks are closed in ascending order
+		Map<Integer, VcfChunk> chunks = new ConcurrentSkipListMap<Integer, VcfChunk>();
 
-		int samples = myvcfFile.getNoSamples();
+		result.builder = new VcfFileBuilder(chunkSize);
+		VcfFileBuilder builder = result.builder;
+
+		List<String> header = vcfReader.getFileHeader();
+		result.header = header;
+
+		int samples = vcfReader.getSamplesCount();
+
+		String contig = null;
+		SitesFileReader legendReader = null;
+		// reused for all lookups
+		SitesEntries refSnp = new SitesEntries();
 
 		while (vcfReader.next()) {
 			MinimalVariantContext snp = vcfReader.getVariantContext();
+			record++;
+
 			int chunkNumber = snp.getStart() / chunkSize;
 			if (snp.getStart() % chunkSize == 0) {
 				chunkNumber = chunkNumber - 1;
 			}
 
+			// all chunks of the range are closed
+			if (chunkNumber > lastChunk && chunks.isEmpty()) {
+				break;
+			}
+
+			if (contig == null) {
+				for (String line : header) {
+					builder.addHeader(line);
+				}
+			}
+
+			if (chunkNumber >= firstChunk && chunkNumber <= lastChunk) {
+				builder.addVariant(snp);
+			}
+
+			if (contig == null) {
+				String chromosome = snp.getContig().replaceAll("chr", "");
+				if (splitChrX && VcfFileUtil.isChrX(chromosome)) {
+					vcfReader.close();
+					result.chrX = true;
+					return;
+				}
+				contig = chromosome;
+				// set X region in filename
+				if (VcfFileUtil.isChrX(chromosome)) {
+					contig = X_NON_PAR;
+					if (filename.contains(X_PAR1)) {
+						contig = X_PAR1;
+					} else if (filename.contains(X_PAR2)) {
+						contig = X_PAR2;
+					}
+				}
+				result.contig = contig;
+				legendReader = getReader(chromosome);
+			}
+
 			// init current chunk only once
-			if (chunks.get(chunkNumber) == null) {
+			if (chunks.get(chunkNumber) == null && chunkNumber >= firstChunk && chunkNumber <= lastChunk) {
 				int chunkStart = chunkNumber * chunkSize + 1;
 				int chunkEnd = chunkStart + chunkSize - 1;
-				VcfChunk chunk = initChunk(contig, chunkStart, chunkEnd, myvcfFile.isPhased(), snp.getNSamples(),
-						header);
+				VcfChunk chunk = initChunk(contig, chunkStart, chunkEnd, samples, header);
 				chunks.put(chunkNumber, chunk);
+				result.createdChunks.add(chunk);
 			}
 
 			int nextChunkNumber = chunkNumber + 1;
@@ -221,55 +653,219 @@ public class StatisticsTask implements ITask {
 			int extendedStart = nextChunkStart - phasingWindow;
 
 			// is in the extended start of the next chunk?
-			if (extendedStart >= 1 && snp.getStart() >= extendedStart) {
+			if (extendedStart >= 1 && snp.getStart() >= extendedStart && nextChunkNumber >= firstChunk
+					&& nextChunkNumber <= lastChunk) {
 				if (chunks.get(nextChunkNumber) == null) {
 					int nextChunkEnd = nextChunkStart + chunkSize - 1;
-					VcfChunk nextChunk = initChunk(contig, nextChunkStart, nextChunkEnd, myvcfFile.isPhased(),
-							snp.getNSamples(), vcfReader.getFileHeader());
+					VcfChunk nextChunk = initChunk(contig, nextChunkStart, nextChunkEnd, samples,
+							vcfReader.getFileHeader());
 					chunks.put(nextChunkNumber, nextChunk);
+					result.createdChunks.add(nextChunk);
 				}
 			}
 
+			// records before the range
+			if (chunks.isEmpty()) {
+				continue;
+			}
+
 			// load reference snp
-			List<SitesEntry> refSnp = legendReader.findByPosition(myvcfFile.getRawChromosome(), snp.getStart());
+			legendReader.findByPosition(snp.getContig(), snp.getStart(), refSnp);
 
 			for (VcfChunk openChunk : chunks.values()) {
 				if (snp.getStart() <= openChunk.getEnd() + phasingWindow) {
 					processLine(snp, refSnp, samples, openChunk.vcfChunkWriter, openChunk);
 				} else {
 					// close open chunks
-					openChunk.vcfChunkWriter.close();
-					chunkSummary(openChunk, metafileWriter);
+					if (!sharedChunkFile) {
+						openChunk.vcfChunkWriter.close();
+					}
+					chunkSummary(openChunk, result.passedChunks);
 					chunks.values().remove(openChunk);
 				}
 			}
 
 		}
-		legendReader.close();
+
 		vcfReader.close();
 
+		if (legendReader != null) {
+			legendReader.close();
+		}
+
 		// close all open chunks
 		for (VcfChunk openChunk : chunks.values()) {
-			openChunk.vcfChunkWriter.close();
+			if (!sharedChunkFile) {
+				openChunk.vcfChunkWriter.close();
+			}
 			if (openChunk.lastPos >= openChunk.getStart()) {
 				// System.out.println("Chunks " + open);
-				chunkSummary(openChunk, metafileWriter);
+				chunkSummary(openChunk, result.passedChunks);
 			} else {
-				new File(openChunk.getVcfFilename()).delete();
+				if (!sharedChunkFile) {
+					new File(openChunk.getVcfFilename()).delete();
+					new File(openChunk.getVcfFilename() + ".tbi").delete();
+				}
 				overallChunks--;
 			}
 		}
 
-		if (!metafileWriter.hasData()) {
-			//FileUtil.deleteFile(metafile);
+		// records of passed chunks are copied when all chunks are checked
+		if (sharedFile != null) {
+			sharedFile.close(result.passedChunks);
+			sharedFile = null;
+		}
+
+	}
+
+	// closes and deletes the files of chunks that were written for a failed file
+	private void deleteChunks(List<VcfChunk> chunks) {
+		for (VcfChunk chunk : chunks) {
+			if (chunk.vcfChunkWriter == null) {
+				continue;
+			}
+			try {
+				chunk.vcfChunkWriter.close();
+			} catch (IOException e) {
+				// file is deleted anyway
+			}
+			new File(chunk.getVcfFilename()).delete();
+			new File(chunk.getVcfFilename() + ".tbi").delete();
+		}
+		if (sharedFile != null) {
+			sharedFile.delete();
+			sharedFile = null;
+		}
+	}
+
+	/**
+	 * Combines the results of all ranges of a file (in file order), writes the
+	 * metafile and creates the index.
+	 */
+	private VcfFile finishFile(String filename, List<FileResult> results) throws IOException {
+
+		FileResult first = results.get(0);
+		VcfFileBuilder builder = first.builder;
+		String contig = first.contig;
+		List<VcfChunk> passedChunks = new Vector<VcfChunk>(first.passedChunks);
+
+		for (FileResult result : results.subList(1, results.size())) {
+			builder.merge(result.builder);
+			if (contig == null) {
+				contig = result.contig;
+			}
+			passedChunks.addAll(result.passedChunks);
+		}
+
+		if (contig == null) {
+			for (String line : first.header) {
+				builder.addHeader(line);
+			}
+		}
+
+		if (builder.isEmpty()) {
+			throw new IOException("No genotypes found in the VCF file. It appears the file contains only the header.");
+		}
+
+		builder.setNoSamples(VcfHeader.read(filename).getSamples().size());
+		VcfFile myvcfFile = builder.build(filename);
+
+		if (VcfFileUtil.isChrMT(myvcfFile.getChromosome())) {
+			myvcfFile.setPhased(true);
 		}
 
+		if (VcfFileUtil.isChrX(myvcfFile.getChromosome())) {
+			myvcfFile.setChrX(true);
+		}
+
+		String metafile = FileUtil.path(chunkFileDir, contig);
+		LineWriter metafileWriter = new LineWriter(metafile);
+		for (VcfChunk chunk : passedChunks) {
+			chunk.setPhased(myvcfFile.isPhased());
+			metafileWriter.write(chunk.serialize());
+		}
 		metafileWriter.close();
 
+		// index is needed by the imputation step
+		if (createIndex) {
+			VcfFileUtil.createIndexIfMissing(filename);
+		}
+
+		return myvcfFile;
+
 	}
 
-	private VcfChunk initChunk(String chr, int chunkStart, int chunkEnd, boolean phased, int samples,
-							   List<String> header) throws IOException {
+	/**
+	 * Splits an indexed single-chromosome file into ranges of whole chunks,
+	 * one range per thread. Returns null if the file has no tabix index,
+	 * more than one chromosome or is chrX.
+	 */
+	private List<StatisticsTask> splitFile(String filename, String partsDir) throws IOException {
+
+		File indexFile = new File(filename + ".tbi");
+		if (!indexFile.exists()) {
+			return null;
+		}
+
+		TabixIndex index = new TabixIndex(indexFile);
+		List<String> sequences = index.getSequenceNames();
+		if (sequences.size() != 1 || VcfFileUtil.isChrX(sequences.get(0))) {
+			return null;
+		}
+		String chromosome = sequences.get(0);
+
+		// the index may report blocks after the last record, those ranges are empty
+		int lastChunk = -1;
+		while ((lastChunk + 1) * (long) chunkSize < MAX_POSITION
+				&& !index.getBlocks(chromosome, (lastChunk + 1) * chunkSize + 1, MAX_POSITION).isEmpty()) {
+			lastChunk++;
+		}
+		if (lastChunk < 1) {
+			return null;
+		}
+
+		int chunksPerRange = (lastChunk + threads) / threads;
+
+		List<StatisticsTask> tasks = new Vector<StatisticsTask>();
+		for (int firstChunk = 0; firstChunk <= lastChunk; firstChunk += chunksPerRange) {
+
+			StatisticsTask task = createFileTask(filename,
+					FileUtil.path(partsDir, String.valueOf(tasks.size())));
+
+			if (firstChunk == 0) {
+				task.firstChunk = ALL_CHUNKS_FIRST;
+				task.startOffset = -1;
+			} else {
+				// start of the phasing window of the first chunk
+				int start = Math.max(firstChunk * chunkSize + 1 - phasingWindow, 1);
+				long offset = Long.MAX_VALUE;
+				for (Block block : index.getBlocks(chromosome, start, MAX_POSITION)) {
+					offset = Math.min(offset, block.getStartPosition());
+				}
+				if (offset == Long.MAX_VALUE) {
+					break;
+				}
+				task.firstChunk = firstChunk;
+				task.startOffset = offset;
+			}
+
+			task.lastChunk = firstChunk + chunksPerRange - 1;
+			tasks.add(task);
+		}
+
+		if (tasks.size() < 2) {
+			return null;
+		}
+
+		// last range takes all remaining records
+		tasks.get(tasks.size() - 1).lastChunk = ALL_CHUNKS_LAST;
+
+		return tasks;
+
+	}
+
+	private VcfChunk initChunk(String chr, int chunkStart, int chunkEnd, int samples, List<String> header)
+			throws IOException {
 		overallChunks++;
 
 		String chunkName = null;
@@ -281,15 +877,31 @@ public class StatisticsTask implements ITask {
 		chunk.setChromosome(chr);
 		chunk.setStart(chunkStart);
 		chunk.setEnd(chunkEnd);
-		chunk.setVcfFilename(chunkName);
-		chunk.setPhased(phased);
+		chunk.setExtendedStart(Math.max(chunkStart - phasingWindow, 1));
+		chunk.setExtendedEnd(chunkEnd + phasingWindow);
+		chunk.setCompression(chunkCompression);
+
+		chunk.snpsPerSampleCount = new SampleCallCounter(samples);
 
-		chunk.snpsPerSampleCount = new int[samples];
-		for (int i = 0; i < samples; i++) {
-			chunk.snpsPerSampleCount[i] = 0;
+		int level = BGzipLineWriter.getCompressionLevel(chunkCompression);
+
+		if (sharedChunkFile) {
+			chunkName = FileUtil.path(chunksDir, "chunks_" + chr + ".vcf.gz");
+			chunk.setVcfFilename(chunkName);
+			if (sharedFile == null) {
+				sharedFile = new SharedChunkFile(chunkName, level, asyncChunkWriter, header);
+			}
+			return chunk;
 		}
 
-		BGzipLineWriter writer = new BGzipLineWriter(chunk.getVcfFilename());
+		chunk.setVcfFilename(chunkName);
+
+		ILineWriter writer;
+		if (asyncChunkWriter) {
+			writer = new AsyncBGzipLineWriter(chunk.getVcfFilename(), level, chunkIndex);
+		} else {
+			writer = new BGzipLineWriter(chunk.getVcfFilename(), level, chunkIndex);
+		}
 		for (String headerLine : header) {
 			writer.write(headerLine);
 		}
@@ -300,7 +912,7 @@ public class StatisticsTask implements ITask {
 
 	}
 
-	private void processLine(MinimalVariantContext snp, List<SitesEntry> refSnps, int samples, BGzipLineWriter vcfWriter,
+	private void processLine(MinimalVariantContext snp, SitesEntries refSnps, int samples, ILineWriter vcfWriter,
 							 VcfChunk chunk)
 			throws IOException, InterruptedException {
 
@@ -409,7 +1021,7 @@ public class StatisticsTask implements ITask {
 			if (insideChunk) {
 				notFoundInLegend++;
 				chunk.notFoundInLegendChunk++;
-				vcfWriter.write(snp.getRawLine());
+				writeChunk(snp, vcfWriter, chunk);
 				typedOnlyWriter.write(snp);
 			}
 
@@ -424,9 +1036,9 @@ public class StatisticsTask implements ITask {
 		// get last item to be compatible with old implementation
 
 		SitesEntry matched = null;
-		for (SitesEntry _refSnp :refSnps){
-			if (GenomicTools.match(snp, _refSnp)) {
-				matched = _refSnp;
+		for (int i = 0; i < refSnps.size(); i++) {
+			if (GenomicTools.match(snp, refSnps.get(i))) {
+				matched = refSnps.get(i);
 			}
 		}
 
@@ -435,13 +1047,15 @@ public class StatisticsTask implements ITask {
 		char legendRef = refSnp.getRefAllele();
 		char legendAlt = refSnp.getAltAllele();
 
+		int classes = GenomicTools.classify(snp, refSnp);
+
 		if (matched != null) {
 			/** simple match of ref/alt in study and legend file **/
 			if (insideChunk) {
 				match++;
 			}
 
-		} else if (GenomicTools.complicatedGenotypes(snp, refSnp)) {
+		} else if ((classes & GenomicTools.COMPLICATED_GENOTYPES) != 0) {
 			/** count A/T C/G genotypes **/
 			if (insideChunk) {
 
@@ -449,7 +1063,7 @@ public class StatisticsTask implements ITask {
 
 			}
 
-		} else if (GenomicTools.alleleSwitch(snp, refSnp)) {
+		} else if ((classes & GenomicTools.ALLELE_SWITCH) != 0) {
 			/**
 			 * simple allele switch check; ignore A/T C/G from above
 			 **/
@@ -462,7 +1076,7 @@ public class StatisticsTask implements ITask {
 			}
 			return;
 
-		} else if (GenomicTools.strandFlip(snp, refSnp)) {
+		} else if ((classes & GenomicTools.STRAND_FLIP) != 0) {
 			/** simple strand swaps **/
 
 			if (insideChunk) {
@@ -474,7 +1088,7 @@ public class StatisticsTask implements ITask {
 			}
 			return;
 
-		} else if (GenomicTools.strandFlipAndAlleleSwitch(snp, refSnp)) {
+		} else if ((classes & GenomicTools.STRAND_FLIP_AND_ALLELE_SWITCH) != 0) {
 
 			if (insideChunk) {
 
@@ -486,7 +1100,7 @@ public class StatisticsTask implements ITask {
 
 			return;
 
-		} else if (GenomicTools.alleleMismatch(snp, refSnp)) {
+		} else if ((classes & GenomicTools.MATCH) == 0) {
 			// filter allele mismatches
 
 			if (insideChunk) {
@@ -514,6 +1128,9 @@ public class StatisticsTask implements ITask {
 				SnpStats statistics = GenomicTools.calculateAlleleFreq(snp, refSnp, refSamples);
 				mafWriter.write(snp, statistics);
 			}
+			if (populationSummary != null) {
+				checkPopulations(snp, refSnp);
+			}
 			overallSnps++;
 			chunk.overallSnpsChunk++;
 		}
@@ -521,29 +1138,60 @@ public class StatisticsTask implements ITask {
 		// write SNPs
 		if (position >= extendedStart && position <= extendedEnd) {
 
-			vcfWriter.write(snp.getRawLine());
+			writeChunk(snp, vcfWriter, chunk);
 			chunk.validSnpsChunk++;
 
 			// check if all samples have
 			// enough SNPs
 			if (insideChunk) {
 
-				for (int i = 0; i < snp.getNSamples(); i++) {
-					if (snp.isCalled(i)) {
-						chunk.snpsPerSampleCount[i] += 1;
-					}
-				}
+				chunk.snpsPerSampleCount.add(snp.getCalledMask());
+			}
+		}
+	}
+
+	// chi-square of the study frequencies against every population in one pass
+	private void checkPopulations(MinimalVariantContext snp, SitesEntry refSnp) {
+
+		float[] frequencies = refSnp.getPopulationFrequencies();
+		if (frequencies == null) {
+			return;
+		}
+
+		boolean strandSwap = (GenomicTools.classify(snp, refSnp)
+				& (GenomicTools.ALLELE_SWITCH | GenomicTools.STRAND_FLIP_AND_ALLELE_SWITCH)) != 0;
+
+		for (int i = 0; i < frequencies.length; i++) {
+			int index = populationIndices[i];
+			if (index != -1 && !Float.isNaN(frequencies[i])) {
+				double chisq = GenomicTools.chiSquare(snp, 1 - frequencies[i], frequencies[i], strandSwap,
+						populationSummary.getSamples(index)).getChisq();
+				populationSummary.add(index, chisq);
 			}
 		}
+
 	}
 
-	private void chunkSummary(VcfChunk chunk, LineWriter metafileWriter) throws IOException {
+	// a record of a shared chunk file is written once for all chunks that contain it
+	private void writeChunk(MinimalVariantContext snp, ILineWriter vcfWriter, VcfChunk chunk) throws IOException {
+
+		if (!sharedChunkFile) {
+			vcfWriter.write(snp);
+			return;
+		}
+
+		sharedFile.write(snp, record, chunk);
+
+	}
+
+	private void chunkSummary(VcfChunk chunk, List<VcfChunk> passedChunks) throws IOException {
 
 		// this checks if enough SNPs are included in each sample
 		boolean lowSampleCallRate = false;
 		int countLowSamples = 0;
-		for (int i = 0; i < chunk.snpsPerSampleCount.length; i++) {
-			int snps = chunk.snpsPerSampleCount[i];
+		int[] snpsPerSampleCount = chunk.snpsPerSampleCount.getCounts();
+		for (int i = 0; i < snpsPerSampleCount.length; i++) {
+			int snps = snpsPerSampleCount[i];
 			double sampleCallRate = snps / (double) chunk.overallSnpsChunk;
 
 			if (sampleCallRate < sampleCallrate) {
@@ -562,13 +1210,12 @@ public class StatisticsTask implements ITask {
 		if (overlap >= minReferenceOverlap && chunk.foundInLegendChunk >= minSnps && !lowSampleCallRate
 				&& chunk.validSnpsChunk >= minSnps) {
 
-			// create index
-			// VcfFileUtil.createIndex(chunk.getVcfFilename());
+			// index was written by the chunk writer if chunkIndex is set
 
 			// update chunk
 			chunk.setSnps(chunk.overallSnpsChunk);
 			chunk.setInReference(chunk.foundInLegendChunk);
-			metafileWriter.write(chunk.serialize());
+			passedChunks.add(chunk);
 
 		} else {
 
@@ -769,12 +1416,32 @@ public class StatisticsTask implements ITask {
 			chromosome = "X";
 		}
 
-		String siteFile = StringUtils.resolveVariable(sitesFile, "chr", chromosome);
+		String siteFile = RefPanel.getSites(sitesFile, chromosome);
 
 		if (!new File(siteFile).exists()) {
 			throw new IOException("This reference panel doesn't support chromosome " + chromosome + ". File " + siteFile + " not found.");
 		}
-		return new SitesFileReader(siteFile, population);
+		SitesFileReader reader = null;
+		if (siteFile.endsWith(BinarySitesFile.EXTENSION)) {
+			reader = new BinarySitesFileReader(siteFile, population);
+		} else if (sitesCacheDir != null) {
+			// files that can not be converted are read as text
+			reader = new SitesCache(sitesCacheDir, sitesCacheSize).open(siteFile, population);
+		}
+		if (reader == null) {
+			reader = new SitesFileReader(siteFile, population);
+			reader.setMemoryLimit(sitesMemoryLimit);
+			reader.setFilter(sitesFilter);
+		}
+		if (populationSummary != null) {
+			reader.setAllPopulations(true);
+			String[] populations = reader.getPopulations();
+			populationIndices = new int[populations.length];
+			for (int i = 0; i < populations.length; i++) {
+				populationIndices[i] = populationSummary.indexOf(populations[i]);
+			}
+		}
+		return reader;
 	}
 
 	public void setMafFile(String mafFile) {
@@ -797,6 +1464,18 @@ public class StatisticsTask implements ITask {
 		this.population = population;
 	}
 
+	/**
+	 * Checks the allele frequencies against all given populations and writes
+	 * their mean chi-square and outliers to populations.txt.
+	 */
+	public void setPopulationSamples(Map<String, Integer> populationSamples) {
+		this.populationSamples = populationSamples;
+	}
+
+	public PopulationSummary getPopulationSummary() {
+		return populationSummary;
+	}
+
 	public void setChunkSize(int chunkSize) {
 		this.chunkSize = chunkSize;
 	}
@@ -992,4 +1671,45 @@ public class StatisticsTask implements ITask {
 	public void setCreateIndex(boolean createIndex) {
 		this.createIndex = createIndex;
 	}
+
+	public void setDecompressionThreads(int decompressionThreads) {
+		this.decompressionThreads = decompressionThreads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setSplitFiles(boolean splitFiles) {
+		this.splitFiles = splitFiles;
+	}
+
+	public void setSitesMemoryLimit(long sitesMemoryLimit) {
+		this.sitesMemoryLimit = sitesMemoryLimit;
+	}
+
+	public void setSitesCache(String sitesCacheDir, long sitesCacheSize) {
+		this.sitesCacheDir = sitesCacheDir;
+		this.sitesCacheSize = sitesCacheSize;
+	}
+
+	public void setSitesFilter(boolean sitesFilter) {
+		this.sitesFilter = sitesFilter;
+	}
+
+	public void setAsyncChunkWriter(boolean asyncChunkWriter) {
+		this.asyncChunkWriter = asyncChunkWriter;
+	}
+
+	public void setChunkCompression(String chunkCompression) {
+		this.chunkCompression = chunkCompression;
+	}
+
+	public void setChunkIndex(boolean chunkIndex) {
+		this.chunkIndex = chunkIndex;
+	}
+
+	public void setSharedChunkFile(boolean sharedChunkFile) {
+		this.sharedChunkFile = sharedChunkFile;
+	}
 }
@@ -1,14 +1,12 @@
 package genepi.imputationserver.steps.fastqc.io;
 
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
-import genepi.io.table.writer.CsvTableWriter;
-import genepi.io.text.LineWriter;
 
 import java.io.IOException;
 
 public class ExcludedSnpsWriter {
 
-    private CsvTableWriter writer;
+    private TsvTableWriter writer;
 
     private String filename;
 
@@ -22,15 +20,15 @@ public class ExcludedSnpsWriter {
 
     public void write(MinimalVariantContext variant, String details) throws IOException {
         if (writer == null) {
-            writer = new CsvTableWriter(filename, '\t', false);
-            writer.setColumns(new String[]{"ID", "CHROM", "POS", "REF", "ALT", "INFO"});
+            writer = new TsvTableWriter(filename);
+            writer.setColumns("ID", "CHROM", "POS", "REF", "ALT", "INFO");
         }
-        writer.setString("ID", variant.getId());
-        writer.setString("CHROM", variant.getContig());
-        writer.setInteger("POS", variant.getStart());
-        writer.setString("REF", variant.getReferenceAllele());
-        writer.setString("ALT", variant.getAlternateAllele());
-        writer.setString("INFO", details);
+        writer.write(variant.getId());
+        writer.write(variant.getContig());
+        writer.write(variant.getStart());
+        writer.write(variant.getReferenceAllele());
+        writer.write(variant.getAlternateAllele());
+        writer.write(details);
         writer.next();
     }
 
@@ -2,14 +2,12 @@ package genepi.imputationserver.steps.fastqc.io;
 
 import genepi.imputationserver.steps.fastqc.SnpStats;
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
-import genepi.io.table.writer.CsvTableWriter;
-import genepi.io.text.LineWriter;
 
 import java.io.IOException;
 
 public class SnpMafWriter {
 
-    private CsvTableWriter writer;
+    private TsvTableWriter writer;
 
     private String filename;
 
@@ -19,25 +17,42 @@ public class SnpMafWriter {
 
     public void write(MinimalVariantContext snp, SnpStats stats) throws IOException {
         if (writer == null) {
-            writer = new CsvTableWriter(filename, '\t', false);
-            writer.setColumns(new String[]{"ID","CHROM","POS", "REF", "ALT",
+            writer = new TsvTableWriter(filename);
+            writer.setColumns("ID","CHROM","POS", "REF", "ALT",
                     "AAF", "REFERENCE_REF",
                     "REFERENCE_ALT", "REFERENCE_AAF",
-                    "CHISQ", "OVERLAP_WITH_REFERENCE", "TYPE"});
+                    "CHISQ", "OVERLAP_WITH_REFERENCE", "TYPE");
         }
 
-        writer.setString("ID", snp.getId());
-        writer.setString("CHROM", stats.getChromosome());
-        writer.setInteger("POS", stats.getPosition());
-        writer.setString("REF", String.valueOf(stats.getAlleleA()));
-        writer.setString("ALT", String.valueOf(stats.getAlleleB()));
-        writer.setDouble("AAF", stats.getFrequencyB());
-        writer.setString("REFERENCE_REF", stats.getRefAlleleA() != Byte.MAX_VALUE ? String.valueOf(stats.getRefAlleleA()) : "NA");
-        writer.setString("REFERENCE_ALT", stats.getRefAlleleB() != Byte.MAX_VALUE ? String.valueOf(stats.getRefAlleleB()) : "NA");
-        writer.setString("REFERENCE_AAF", Float.isNaN(stats.getRefFrequencyB()) ? "NA" : Float.toString(stats.getRefFrequencyB()));
-        writer.setString("CHISQ", Double.isNaN(stats.getChisq()) ? "NA" : Double.toString(stats.getChisq()));
-        writer.setString("OVERLAP_WITH_REFERENCE", String.valueOf(stats.isOverlapWithReference()));
-        writer.setString("TYPE", stats.getType());
+        writer.write(snp.getId());
+        writer.write(stats.getChromosome());
+        writer.write(stats.getPosition());
+        writer.write(stats.getAlleleA());
+        writer.write(stats.getAlleleB());
+        // written as double like before
+        writer.write((double) stats.getFrequencyB());
+        if (stats.getRefAlleleA() != Byte.MAX_VALUE) {
+            writer.write(stats.getRefAlleleA());
+        } else {
+            writer.write("NA");
+        }
+        if (stats.getRefAlleleB() != Byte.MAX_VALUE) {
+            writer.write(stats.getRefAlleleB());
+        } else {
+            writer.write("NA");
+        }
+        if (Float.isNaN(stats.getRefFrequencyB())) {
+            writer.write("NA");
+        } else {
+            writer.write(stats.getRefFrequencyB());
+        }
+        if (Double.isNaN(stats.getChisq())) {
+            writer.write("NA");
+        } else {
+            writer.write(stats.getChisq());
+        }
+        writer.write(stats.isOverlapWithReference() ? "true" : "false");
+        writer.write(stats.getType());
         writer.next();
 
     }
@@ -0,0 +1,185 @@
+package genepi.imputationserver.steps.fastqc.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes tab-separated rows into a reused byte buffer. Values are appended
+ * column by column, numbers are formatted without creating strings. The
+ * output is the same as the one of CsvTableWriter without quotes: '"' is
+ * escaped as '""' and rows end with '\n'.
+ */
+public class TsvTableWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // escape char of the csv writer used by CsvTableWriter
+    private static final byte ESCAPE = '"';
+
+    private static final byte[] MIN_INT = String.valueOf(Integer.MIN_VALUE).getBytes();
+
+    private OutputStream out;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int length = 0;
+
+    private int column = 0;
+
+    // doubles and floats are formatted by the JDK to match Double.toString
+    private StringBuilder number = new StringBuilder(32);
+
+    public TsvTableWriter(String filename) throws IOException {
+        this(filename, false);
+    }
+
+    public TsvTableWriter(String filename, boolean gzip) throws IOException {
+        out = new FileOutputStream(filename);
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+    }
+
+    public void setColumns(String... columns) throws IOException {
+        for (String name : columns) {
+            write(name);
+        }
+        next();
+    }
+
+    public void write(String value) throws IOException {
+        separate();
+        if (value == null) {
+            return;
+        }
+        int size = value.length();
+        for (int i = 0; i < size; i++) {
+            if (value.charAt(i) >= 0x80) {
+                writeEncoded(value);
+                return;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            writeChar(value.charAt(i));
+        }
+    }
+
+    public void write(char value) throws IOException {
+        separate();
+        if (value >= 0x80) {
+            writeEncoded(String.valueOf(value));
+        } else {
+            writeChar(value);
+        }
+    }
+
+    public void write(int value) throws IOException {
+        separate();
+        ensure(11);
+        if (value == Integer.MIN_VALUE) {
+            System.arraycopy(MIN_INT, 0, buffer, length, MIN_INT.length);
+            length += MIN_INT.length;
+            return;
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    public void write(double value) throws IOException {
+        number.setLength(0);
+        number.append(value);
+        writeNumber();
+    }
+
+    public void write(float value) throws IOException {
+        number.setLength(0);
+        number.append(value);
+        writeNumber();
+    }
+
+    /**
+     * Ends the current row.
+     */
+    public void next() throws IOException {
+        ensure(1);
+        buffer[length++] = '\n';
+        column = 0;
+    }
+
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    private void writeNumber() throws IOException {
+        separate();
+        ensure(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            buffer[length++] = (byte) number.charAt(i);
+        }
+    }
+
+    private void separate() throws IOException {
+        if (column > 0) {
+            ensure(1);
+            buffer[length++] = '\t';
+        }
+        column++;
+    }
+
+    private void writeChar(char c) throws IOException {
+        ensure(2);
+        if (c == ESCAPE || c == 0) {
+            buffer[length++] = ESCAPE;
+        }
+        buffer[length++] = (byte) c;
+    }
+
+    // values with non-ASCII chars are written in the platform charset as by a FileWriter
+    private void writeEncoded(String value) throws IOException {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE || c == 0) {
+                escaped.append((char) ESCAPE);
+            }
+            escaped.append(c);
+        }
+        byte[] bytes = escaped.toString().getBytes(Charset.defaultCharset());
+        if (bytes.length > buffer.length - length) {
+            flushBuffer();
+        }
+        if (bytes.length > buffer.length) {
+            out.write(bytes);
+        } else {
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (length + bytes > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+}
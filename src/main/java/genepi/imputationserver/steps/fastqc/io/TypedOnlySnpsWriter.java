@@ -1,13 +1,12 @@
 package genepi.imputationserver.steps.fastqc.io;
 
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
-import genepi.io.table.writer.CsvTableWriter;
 
 import java.io.IOException;
 
 public class TypedOnlySnpsWriter {
 
-    private CsvTableWriter writer;
+    private TsvTableWriter writer;
 
     private String filename;
 
@@ -17,14 +16,14 @@ public class TypedOnlySnpsWriter {
 
     public void write(MinimalVariantContext variant) throws IOException {
         if (writer == null) {
-            writer = new CsvTableWriter(filename, '\t', false);
-            writer.setColumns(new String[]{"ID", "CHROM", "POS", "REF", "ALT"});
+            writer = new TsvTableWriter(filename);
+            writer.setColumns("ID", "CHROM", "POS", "REF", "ALT");
         }
-        writer.setString("ID", variant.getId());
-        writer.setString("CHROM", variant.getContig());
-        writer.setInteger("POS", variant.getStart());
-        writer.setString("REF", variant.getReferenceAllele());
-        writer.setString("ALT", variant.getAlternateAllele());
+        writer.write(variant.getId());
+        writer.write(variant.getContig());
+        writer.write(variant.getStart());
+        writer.write(variant.getReferenceAllele());
+        writer.write(variant.getAlternateAllele());
         writer.next();
     }
 
@@ -0,0 +1,284 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import genepi.io.FileUtil;
+import genepi.io.text.LineReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar binary version of a sites file with one chromosome. All values
+ * are big endian:
+ *
+ * <pre>
+ * magic, version, header length
+ * header: size and modification time of the text file, chromosome, entries,
+ *         populations, non-ACGT alleles, rsID bytes
+ * positions      int[entries], ascending
+ * alleles        4 bits per entry (2 bits REF, 2 bits ALT)
+ * rsID offsets   int[entries + 1]
+ * rsIDs          UTF-8
+ * AAF            float[entries] per population, NaN if missing
+ * </pre>
+ */
+public class BinarySitesFile {
+
+	public static final String EXTENSION = ".bin";
+
+	static final byte[] MAGIC = "SITESBIN".getBytes(StandardCharsets.US_ASCII);
+
+	static final int VERSION = 2;
+
+	static final char[] BASES = new char[] { 'A', 'C', 'G', 'T' };
+
+	/**
+	 * Thrown for text files that can not be stored in this format, they have to
+	 * be read as text files.
+	 */
+	public static class UnsupportedFileException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedFileException(String message) {
+			super(message);
+		}
+
+	}
+
+	/**
+	 * Returns the 2-bit code of a base or -1 for all other alleles.
+	 */
+	static int encode(char allele) {
+		switch (allele) {
+		case 'A':
+			return 0;
+		case 'C':
+			return 1;
+		case 'G':
+			return 2;
+		case 'T':
+			return 3;
+		default:
+			return -1;
+		}
+	}
+
+	public static void convert(String input, String output) throws IOException {
+
+		LineReader reader = new LineReader(
+				new DataInputStream(FileUtil.decompressStream(new FileInputStream(input))));
+		if (!reader.next()) {
+			reader.close();
+			throw new IOException("File '" + input + "' is empty.");
+		}
+
+		String[] header = reader.get().split("\t");
+		int idColumn = findColumn(header, SitesFileReader.COLUMN_ID);
+		int chromosomeColumn = findColumn(header, SitesFileReader.COLUMN_CHROM);
+		int positionColumn = findColumn(header, SitesFileReader.COLUMN_POS);
+		int refColumn = findColumn(header, SitesFileReader.COLUMN_REF);
+		int altColumn = findColumn(header, SitesFileReader.COLUMN_ALT);
+
+		List<String> populations = new ArrayList<String>();
+		List<Integer> populationColumns = new ArrayList<Integer>();
+		for (int i = 0; i < header.length; i++) {
+			if (header[i].toUpperCase().startsWith(SitesFileReader.COLUMN_AAF_PREFIX)) {
+				populations.add(header[i].substring(SitesFileReader.COLUMN_AAF_PREFIX.length()));
+				populationColumns.add(i);
+			}
+		}
+
+		// columns are collected in temporary files and concatenated at the end
+		File positionsFile = new File(output + ".positions.tmp");
+		File allelesFile = new File(output + ".alleles.tmp");
+		File offsetsFile = new File(output + ".offsets.tmp");
+		File idsFile = new File(output + ".ids.tmp");
+		File[] frequencyFiles = new File[populations.size()];
+
+		DataOutputStream positions = open(positionsFile);
+		DataOutputStream alleles = open(allelesFile);
+		DataOutputStream offsets = open(offsetsFile);
+		DataOutputStream ids = open(idsFile);
+		DataOutputStream[] frequencies = new DataOutputStream[populations.size()];
+		for (int i = 0; i < frequencies.length; i++) {
+			frequencyFiles[i] = new File(output + ".aaf" + i + ".tmp");
+			frequencies[i] = open(frequencyFiles[i]);
+		}
+
+		String chromosome = null;
+		int entries = 0;
+		int lastPosition = -1;
+		int pendingAlleles = 0;
+		long idsLength = 0;
+		ByteArrayOutputStream exceptions = new ByteArrayOutputStream();
+		DataOutputStream exceptionsOut = new DataOutputStream(exceptions);
+		int exceptionsCount = 0;
+
+		try {
+
+			offsets.writeInt(0);
+
+			while (reader.next()) {
+
+				String line = reader.get();
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				String[] tiles = line.split("\t");
+
+				if (chromosome == null) {
+					chromosome = tiles[chromosomeColumn];
+				} else if (!chromosome.equals(tiles[chromosomeColumn])) {
+					throw new UnsupportedFileException("File '" + input + "' contains more than one chromosome.");
+				}
+
+				int position = Integer.parseInt(tiles[positionColumn]);
+				if (position < lastPosition) {
+					throw new UnsupportedFileException("File '" + input + "' is not sorted by position.");
+				}
+				lastPosition = position;
+				positions.writeInt(position);
+
+				char ref = tiles[refColumn].charAt(0);
+				char alt = tiles[altColumn].charAt(0);
+				int refCode = encode(ref);
+				int altCode = encode(alt);
+				if (refCode == -1 || altCode == -1) {
+					exceptionsOut.writeInt(entries);
+					exceptionsOut.writeChar(ref);
+					exceptionsOut.writeChar(alt);
+					exceptionsCount++;
+					refCode = Math.max(refCode, 0);
+					altCode = Math.max(altCode, 0);
+				}
+				int code = refCode | altCode << 2;
+				if (entries % 2 == 0) {
+					pendingAlleles = code;
+				} else {
+					alleles.writeByte(pendingAlleles | code << 4);
+				}
+
+				byte[] id = tiles[idColumn].getBytes(StandardCharsets.UTF_8);
+				ids.write(id);
+				idsLength += id.length;
+				if (idsLength > Integer.MAX_VALUE) {
+					throw new UnsupportedFileException("File '" + input + "' has too many rsIDs.");
+				}
+				offsets.writeInt((int) idsLength);
+
+				for (int i = 0; i < frequencies.length; i++) {
+					String value = tiles[populationColumns.get(i)];
+					frequencies[i].writeFloat(value.equals(".") ? Float.NaN : Float.parseFloat(value));
+				}
+
+				entries++;
+			}
+
+			if (entries % 2 == 1) {
+				alleles.writeByte(pendingAlleles);
+			}
+
+		} finally {
+			reader.close();
+			positions.close();
+			alleles.close();
+			offsets.close();
+			ids.close();
+			for (DataOutputStream frequency : frequencies) {
+				frequency.close();
+			}
+		}
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(headerBytes);
+		headerOut.writeLong(new File(input).length());
+		headerOut.writeLong(new File(input).lastModified());
+		headerOut.writeUTF(chromosome != null ? chromosome : "");
+		headerOut.writeInt(entries);
+		headerOut.writeInt(populations.size());
+		for (String population : populations) {
+			headerOut.writeUTF(population);
+		}
+		headerOut.writeInt(exceptionsCount);
+		exceptionsOut.close();
+		headerOut.write(exceptions.toByteArray());
+		headerOut.writeLong(idsLength);
+		headerOut.close();
+
+		// write to a temporary file first, readers never see incomplete files
+		File tempFile = new File(output + ".tmp");
+		DataOutputStream out = open(tempFile);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(headerBytes.size());
+		out.write(headerBytes.toByteArray());
+		append(out, positionsFile);
+		append(out, allelesFile);
+		append(out, offsetsFile);
+		append(out, idsFile);
+		for (File frequencyFile : frequencyFiles) {
+			append(out, frequencyFile);
+		}
+		out.close();
+
+		File outputFile = new File(output);
+		outputFile.delete();
+		if (!tempFile.renameTo(outputFile)) {
+			throw new IOException("File '" + output + "' could not be written.");
+		}
+
+	}
+
+	/**
+	 * Returns true if a binary sites file was converted from the current
+	 * version of the text file, i.e. size and modification time match.
+	 */
+	public static boolean isCurrent(String binaryFile, String textFile) {
+		File source = new File(textFile);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFile)));
+			try {
+				byte[] magic = new byte[MAGIC.length];
+				in.readFully(magic);
+				if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+					return false;
+				}
+				// header length
+				in.readInt();
+				return in.readLong() == source.length() && in.readLong() == source.lastModified();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static int findColumn(String[] header, String name) throws IOException {
+		for (int i = 0; i < header.length; i++) {
+			if (header[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		throw new IOException("Column '" + name + "' not found in file.");
+	}
+
+	private static DataOutputStream open(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+	}
+
+	private static void append(OutputStream out, File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		file.delete();
+	}
+
+}
@@ -0,0 +1,198 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a BinarySitesFile. All columns are memory-mapped and positions are
+ * found by binary search. Returns the same entries as SitesFileReader on the
+ * text file.
+ */
+public class BinarySitesFileReader extends SitesFileReader {
+
+	private String chromosome;
+
+	private int entries;
+
+	private IntBuffer positions;
+
+	private ByteBuffer alleles;
+
+	private IntBuffer idOffsets;
+
+	private ByteBuffer ids;
+
+	private FloatBuffer frequencies;
+
+	private String[] populations;
+
+	private FloatBuffer[] populationFrequencies;
+
+	// entries with non-ACGT alleles in ascending order and their alleles
+	private int[] exceptions;
+
+	private char[] exceptionAlleles;
+
+	public BinarySitesFileReader(String filename, String population) throws IOException {
+
+		if (!new File(filename).exists()) {
+			throw new IOException("File '" + filename + "' not found.");
+		}
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		FileChannel channel = file.getChannel();
+
+		try {
+
+			byte[] magic = new byte[BinarySitesFile.MAGIC.length];
+			file.readFully(magic);
+			if (!Arrays.equals(magic, BinarySitesFile.MAGIC)) {
+				throw new IOException("File '" + filename + "' is not a binary sites file.");
+			}
+			int version = file.readInt();
+			if (version != BinarySitesFile.VERSION) {
+				throw new IOException("File '" + filename + "' has unsupported version " + version + ".");
+			}
+			int headerLength = file.readInt();
+
+			// size and modification time of the text file
+			file.readLong();
+			file.readLong();
+
+			chromosome = file.readUTF();
+			entries = file.readInt();
+
+			populations = new String[file.readInt()];
+			int populationIndex = -1;
+			for (int i = 0; i < populations.length; i++) {
+				populations[i] = file.readUTF();
+				if (populations[i].equalsIgnoreCase(population)) {
+					populationIndex = i;
+				}
+			}
+
+			int exceptionsCount = file.readInt();
+			exceptions = new int[exceptionsCount];
+			exceptionAlleles = new char[2 * exceptionsCount];
+			for (int i = 0; i < exceptionsCount; i++) {
+				exceptions[i] = file.readInt();
+				exceptionAlleles[2 * i] = file.readChar();
+				exceptionAlleles[2 * i + 1] = file.readChar();
+			}
+
+			long idsLength = file.readLong();
+
+			long offset = BinarySitesFile.MAGIC.length + 8 + headerLength;
+
+			positions = map(channel, offset, 4L * entries).asIntBuffer();
+			offset += 4L * entries;
+
+			alleles = map(channel, offset, (entries + 1) / 2);
+			offset += (entries + 1) / 2;
+
+			idOffsets = map(channel, offset, 4L * (entries + 1)).asIntBuffer();
+			offset += 4L * (entries + 1);
+
+			ids = map(channel, offset, idsLength);
+			offset += idsLength;
+
+			populationFrequencies = new FloatBuffer[populations.length];
+			for (int i = 0; i < populations.length; i++) {
+				populationFrequencies[i] = map(channel, offset + i * 4L * entries, 4L * entries).asFloatBuffer();
+			}
+			if (populationIndex != -1) {
+				frequencies = populationFrequencies[populationIndex];
+			}
+
+		} finally {
+			// mappings stay valid after the channel is closed
+			file.close();
+		}
+
+	}
+
+	private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	@Override
+	public void findByPosition(String chromosome, int position, SitesEntries result) throws IOException {
+
+		result.clear();
+
+		if (!chromosome.equals(this.chromosome)) {
+			return;
+		}
+
+		// first entry with a position >= position
+		int low = 0;
+		int high = this.entries;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (positions.get(middle) < position) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		for (int i = low; i < this.entries && positions.get(i) == position; i++) {
+			setEntry(i, result.add());
+		}
+
+	}
+
+	private void setEntry(int index, SitesEntry entry) {
+
+		entry.setRsId(ids, idOffsets.get(index), idOffsets.get(index + 1));
+
+		int exception = exceptions.length == 0 ? -1 : Arrays.binarySearch(exceptions, index);
+		if (exception >= 0) {
+			entry.setRefAllele(exceptionAlleles[2 * exception]);
+			entry.setAltAllele(exceptionAlleles[2 * exception + 1]);
+		} else {
+			int code = alleles.get(index >> 1) >> ((index & 1) * 4);
+			entry.setRefAllele(BinarySitesFile.BASES[code & 3]);
+			entry.setAltAllele(BinarySitesFile.BASES[(code >> 2) & 3]);
+		}
+		entry.setType("-");
+
+		float aaf = 0;
+
+		if (frequencies != null && !Float.isNaN(frequencies.get(index))) {
+			aaf = frequencies.get(index);
+			entry.setFrequencies(true);
+		} else {
+			entry.setFrequencies(false);
+		}
+
+		entry.setRefFrequency(1 - aaf);
+		entry.setAltFrequency(aaf);
+
+		if (isAllPopulations()) {
+			float[] frequencies = entry.getPopulationFrequencies();
+			if (frequencies == null || frequencies.length != populations.length) {
+				frequencies = new float[populations.length];
+				entry.setPopulationFrequencies(frequencies);
+			}
+			for (int i = 0; i < populations.length; i++) {
+				frequencies[i] = populationFrequencies[i].get(index);
+			}
+		}
+
+	}
+
+	@Override
+	public String[] getPopulations() {
+		return populations;
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
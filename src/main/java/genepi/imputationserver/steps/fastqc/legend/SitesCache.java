@@ -0,0 +1,364 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Directory with binary versions of sites files that is shared by all jobs
+ * on a machine. Entries are keyed by path, size and modification time of
+ * the text file, so a changed panel is converted again. Files are created
+ * under a lock and moved into place by rename; the least recently used
+ * files are removed when the cache is larger than its limit.
+ * <p>
+ * Every entry has a lock file: readers hold it shared until the binary file
+ * is mapped, conversions hold it exclusive. Eviction skips entries whose
+ * lock is held. A lock file is only deleted by the holder of its exclusive
+ * lock, which marks it first, so jobs that locked a deleted file retry.
+ * File locks are held per process, so threads take a lock per key first.
+ */
+public class SitesCache {
+
+	private static final String LOCK_FILE = "cache.lock";
+
+	private static final String LOCK_EXTENSION = ".lock";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	// text files that can not be converted, e.g. with more than one chromosome
+	private static Set<String> unsupported = Collections.synchronizedSet(new HashSet<String>());
+
+	// threads of this process that use an entry, a conversion only blocks its own key
+	private static ConcurrentHashMap<String, ReentrantLock> threadLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+	// the cache lock file is locked by one thread of this process at a time
+	private static final Object EVICTION = new Object();
+
+	private File directory;
+
+	private long maxBytes;
+
+	public SitesCache(String directory, long maxBytes) throws IOException {
+		this.directory = new File(directory);
+		this.maxBytes = maxBytes;
+		if (!this.directory.exists() && !this.directory.mkdirs()) {
+			throw new IOException("Sites cache directory '" + directory + "' could not be created.");
+		}
+	}
+
+	/**
+	 * Opens the binary version of a text sites file and converts it if it is
+	 * not in the cache. Returns null if the file can not be converted, the text
+	 * file has to be read instead.
+	 */
+	public SitesFileReader open(String sitesFile, String population) throws IOException {
+
+		File file = new File(sitesFile);
+		String key = getKey(file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified());
+		File cachedFile = new File(directory, key + BinarySitesFile.EXTENSION);
+
+		if (unsupported.contains(key)) {
+			return null;
+		}
+
+		ReentrantLock threadLock = getThreadLock(key);
+		threadLock.lock();
+		try {
+
+			KeyLock lock = lockKey(key, true);
+			try {
+				if (cachedFile.exists()) {
+					return openCached(cachedFile, population);
+				}
+			} finally {
+				lock.release();
+			}
+
+			// one process converts, the others wait and use its file
+			lock = lockKey(key, false);
+			try {
+				if (!cachedFile.exists()) {
+					try {
+						BinarySitesFile.convert(sitesFile, cachedFile.getAbsolutePath());
+					} catch (BinarySitesFile.UnsupportedFileException e) {
+						deleteTempFiles(key);
+						unsupported.add(key);
+						return null;
+					} catch (IOException e) {
+						// e.g. a full disk, the next job tries again
+						deleteTempFiles(key);
+						throw e;
+					}
+					evict(key);
+				}
+				return openCached(cachedFile, population);
+			} finally {
+				lock.release();
+			}
+
+		} finally {
+			threadLock.unlock();
+		}
+
+	}
+
+	private static ReentrantLock getThreadLock(String key) {
+		ReentrantLock lock = threadLocks.get(key);
+		if (lock == null) {
+			ReentrantLock newLock = new ReentrantLock();
+			lock = threadLocks.putIfAbsent(key, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+
+	private SitesFileReader openCached(File cachedFile, String population) throws IOException {
+		// modification time is used as last access time
+		cachedFile.setLastModified(System.currentTimeMillis());
+		// the mapping stays valid when the file is evicted later
+		return new BinarySitesFileReader(cachedFile.getAbsolutePath(), population);
+	}
+
+	// removes least recently used files until the cache fits into maxBytes
+	private void evict(String keep) throws IOException {
+		synchronized (EVICTION) {
+			evictFiles(keep);
+		}
+	}
+
+	private void evictFiles(String keep) throws IOException {
+
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+		FileChannel channel = lockFile.getChannel();
+		FileLock lock = channel.lock();
+
+		try {
+
+			List<File> files = new ArrayList<File>();
+			Set<String> keys = new HashSet<String>();
+			Set<String> staleKeys = new HashSet<String>();
+			long bytes = 0;
+			File[] entries = directory.listFiles();
+			if (entries == null) {
+				return;
+			}
+			for (File entry : entries) {
+				String name = entry.getName();
+				if (name.endsWith(BinarySitesFile.EXTENSION)) {
+					files.add(entry);
+					keys.add(getKey(entry));
+					bytes += entry.length();
+				} else if (!name.equals(LOCK_FILE)
+						&& (name.endsWith(LOCK_EXTENSION) || name.endsWith(TEMP_EXTENSION))) {
+					staleKeys.add(getKey(entry));
+				}
+			}
+
+			Collections.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					return Long.compare(a.lastModified(), b.lastModified());
+				}
+			});
+
+			for (File entry : files) {
+				if (bytes <= maxBytes) {
+					break;
+				}
+				String key = getKey(entry);
+				if (key.equals(keep)) {
+					continue;
+				}
+				// entries that are read or converted right now stay
+				KeyLock keyLock = tryLockKey(key);
+				if (keyLock == null) {
+					continue;
+				}
+				long length = entry.length();
+				// jobs that already mapped the file keep reading it
+				if (entry.delete()) {
+					bytes -= length;
+					keys.remove(key);
+					keyLock.delete();
+				} else {
+					keyLock.release();
+				}
+			}
+
+			// lock and temporary files of crashed conversions or evicted entries
+			staleKeys.removeAll(keys);
+			staleKeys.remove(keep);
+			for (String key : staleKeys) {
+				KeyLock keyLock = tryLockKey(key);
+				if (keyLock != null) {
+					deleteTempFiles(key);
+					keyLock.delete();
+				}
+			}
+
+		} finally {
+			lock.release();
+			lockFile.close();
+		}
+
+	}
+
+	private void deleteTempFiles(String key) {
+		File[] entries = directory.listFiles();
+		if (entries == null) {
+			return;
+		}
+		for (File entry : entries) {
+			if (entry.getName().startsWith(key + ".") && entry.getName().endsWith(TEMP_EXTENSION)) {
+				entry.delete();
+			}
+		}
+	}
+
+	private KeyLock lockKey(String key, boolean shared) throws IOException {
+		while (true) {
+			KeyLock lock = new KeyLock(new File(directory, key + LOCK_EXTENSION));
+			try {
+				if (lock.lock(shared)) {
+					return lock;
+				}
+			} catch (IOException e) {
+				lock.close();
+				throw e;
+			}
+		}
+	}
+
+	// returns null if the entry is used by a thread of this or another process
+	private KeyLock tryLockKey(String key) throws IOException {
+		ReentrantLock threadLock = getThreadLock(key);
+		if (!threadLock.tryLock()) {
+			return null;
+		}
+		File file = new File(directory, key + LOCK_EXTENSION);
+		KeyLock lock = new KeyLock(file, threadLock);
+		try {
+			if (lock.tryLock()) {
+				return lock;
+			}
+		} catch (IOException e) {
+			lock.close();
+			throw e;
+		}
+		return null;
+	}
+
+	private static class KeyLock {
+
+		private File file;
+
+		private RandomAccessFile lockFile;
+
+		private FileLock lock;
+
+		// held by eviction, the caller of lockKey holds it already
+		private ReentrantLock threadLock;
+
+		private KeyLock(File file) throws IOException {
+			this(file, null);
+		}
+
+		private KeyLock(File file, ReentrantLock threadLock) throws IOException {
+			this.file = file;
+			this.threadLock = threadLock;
+			try {
+				this.lockFile = new RandomAccessFile(file, "rw");
+			} catch (IOException e) {
+				unlockThread();
+				throw e;
+			}
+		}
+
+		// false if the file was deleted by another job in the meantime
+		private boolean lock(boolean shared) throws IOException {
+			lock = lockFile.getChannel().lock(0, Long.MAX_VALUE, shared);
+			if (lockFile.length() > 0) {
+				release();
+				return false;
+			}
+			return true;
+		}
+
+		private boolean tryLock() throws IOException {
+			lock = lockFile.getChannel().tryLock();
+			if (lock == null || lockFile.length() > 0) {
+				release();
+				return false;
+			}
+			return true;
+		}
+
+		private void delete() throws IOException {
+			lockFile.write(1);
+			lockFile.getFD().sync();
+			file.delete();
+			release();
+		}
+
+		private void release() throws IOException {
+			if (lock != null) {
+				lock.release();
+				lock = null;
+			}
+			close();
+		}
+
+		private void close() throws IOException {
+			try {
+				lockFile.close();
+			} finally {
+				unlockThread();
+			}
+		}
+
+		private void unlockThread() {
+			if (threadLock != null) {
+				threadLock.unlock();
+				threadLock = null;
+			}
+		}
+
+	}
+
+	// entries are named by key and extension
+	private static String getKey(File file) {
+		String name = file.getName();
+		int dot = name.indexOf('.');
+		return dot == -1 ? name : name.substring(0, dot);
+	}
+
+	private static String getKey(String value) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (byte b : hash) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable result of a sites lookup. Entries are kept when the holder is
+ * cleared and filled again by the next lookup, so repeated lookups allocate
+ * no objects.
+ */
+public class SitesEntries {
+
+	private SitesEntry[] entries = new SitesEntry[4];
+
+	private int size = 0;
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns the next unused entry. Its fields are not reset.
+	 */
+	public SitesEntry add() {
+		if (size == entries.length) {
+			SitesEntry[] newEntries = new SitesEntry[entries.length * 2];
+			System.arraycopy(entries, 0, newEntries, 0, size);
+			entries = newEntries;
+		}
+		if (entries[size] == null) {
+			entries[size] = new SitesEntry();
+		}
+		return entries[size++];
+	}
+
+	public void addAll(SitesEntries other) {
+		for (int i = 0; i < other.size; i++) {
+			add().set(other.entries[i]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public SitesEntry get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return entries[index];
+	}
+
+	public List<SitesEntry> toList() {
+		List<SitesEntry> list = new ArrayList<SitesEntry>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(entries[i]);
+		}
+		return list;
+	}
+
+}
@@ -1,5 +1,8 @@
 package genepi.imputationserver.steps.fastqc.legend;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class SitesEntry {
 
 	private char refAllele;
@@ -8,6 +11,15 @@ public class SitesEntry {
 
 	private String rsId;
 
+	// range of the rsID in a line or buffer, the String is created on first access
+	private String rsIdLine;
+
+	private ByteBuffer rsIdBuffer;
+
+	private int rsIdStart;
+
+	private int rsIdEnd;
+
 	private float refFrequency;
 
 	private float altFrequency;
@@ -18,6 +30,9 @@ public class SitesEntry {
 	
 	private String genotype = null;
 
+	// frequencies of all populations of the sites file, NaN if missing
+	private float[] populationFrequencies;
+
 	public char getRefAllele() {
 		return refAllele;
 	}
@@ -53,11 +68,66 @@ public class SitesEntry {
 	}
 
 	public String getRsId() {
+		if (rsId == null) {
+			if (rsIdLine != null) {
+				rsId = rsIdLine.substring(rsIdStart, rsIdEnd);
+			} else if (rsIdBuffer != null) {
+				byte[] bytes = new byte[rsIdEnd - rsIdStart];
+				for (int i = 0; i < bytes.length; i++) {
+					bytes[i] = rsIdBuffer.get(rsIdStart + i);
+				}
+				rsId = new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
 		return rsId;
 	}
 
 	public void setRsId(String rsId) {
 		this.rsId = rsId;
+		this.rsIdLine = null;
+		this.rsIdBuffer = null;
+	}
+
+	// rsID is the substring start to end of line
+	void setRsId(String line, int start, int end) {
+		setRsId(null);
+		this.rsIdLine = line;
+		this.rsIdStart = start;
+		this.rsIdEnd = end;
+	}
+
+	// rsID are the UTF-8 bytes start to end of buffer
+	void setRsId(ByteBuffer buffer, int start, int end) {
+		setRsId(null);
+		this.rsIdBuffer = buffer;
+		this.rsIdStart = start;
+		this.rsIdEnd = end;
+	}
+
+	/**
+	 * Copies all fields of the other entry.
+	 */
+	public void set(SitesEntry other) {
+		refAllele = other.refAllele;
+		altAllele = other.altAllele;
+		rsId = other.rsId;
+		rsIdLine = other.rsIdLine;
+		rsIdBuffer = other.rsIdBuffer;
+		rsIdStart = other.rsIdStart;
+		rsIdEnd = other.rsIdEnd;
+		refFrequency = other.refFrequency;
+		altFrequency = other.altFrequency;
+		frequencies = other.frequencies;
+		type = other.type;
+		genotype = other.genotype;
+		if (other.populationFrequencies == null) {
+			populationFrequencies = null;
+		} else {
+			if (populationFrequencies == null || populationFrequencies.length != other.populationFrequencies.length) {
+				populationFrequencies = new float[other.populationFrequencies.length];
+			}
+			System.arraycopy(other.populationFrequencies, 0, populationFrequencies, 0, populationFrequencies.length);
+		}
 	}
 
 	public String getType() {
@@ -76,6 +146,14 @@ public class SitesEntry {
 		return frequencies;
 	}
 	
+	public float[] getPopulationFrequencies() {
+		return populationFrequencies;
+	}
+
+	public void setPopulationFrequencies(float[] populationFrequencies) {
+		this.populationFrequencies = populationFrequencies;
+	}
+
 	public String getGenotype() {
 		if (genotype == null) {
 			StringBuilder builder = new StringBuilder(2);
@@ -6,14 +6,42 @@ import htsjdk.tribble.readers.TabixReader;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SitesFileReader {
 
 	private String population;
 
+	private String filename;
+
 	private TabixReader tabixReader;
 
+	// filters shared by all readers, one per path, replaced when the file changes
+	private static Map<String, FilterEntry> filters = new HashMap<String, FilterEntry>();
+
+	// filter of a sites file, created by the first reader that needs it
+	private static class FilterEntry {
+
+		private long length;
+
+		private long lastModified;
+
+		private SitesFilter filter;
+
+		private FilterEntry(long length, long lastModified) {
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+	private boolean useFilter = false;
+
+	// loaded by the first lookup
+	private SitesFilter filter;
+
 	private int idColumn = -1;
 
 	private int refColumn = -1;
@@ -22,6 +50,56 @@ public class SitesFileReader {
 
 	private int popColumn = -1;
 
+	private int chromosomeColumn = -1;
+
+	private int positionColumn = -1;
+
+	// all AAF columns and their population names
+	private int[] populationColumns = new int[0];
+
+	private String[] populations = new String[0];
+
+	private boolean allPopulations = false;
+
+	// larger gaps between two lookups are skipped by a tabix seek
+	private static final int MAX_GAP = 100000;
+
+	// sequential cursor, opened by the first lookup
+	private TabixReader.Iterator cursor;
+
+	private String cursorChromosome;
+
+	// first line after the last lookup, null at end of chromosome
+	private String nextLine;
+
+	private int nextPosition;
+
+	private int lastPosition = -1;
+
+	// entries at lastPosition
+	private SitesEntries lastEntries = new SitesEntries();
+
+	// result of the list based lookups
+	private SitesEntries results = new SitesEntries();
+
+	// start and end of the columns of the last sliced line, up to maxColumn
+	private int maxColumn = -1;
+
+	private int[] columnStarts;
+
+	private int[] columnEnds;
+
+	private static final float[] POWERS_OF_TEN = new float[] { 1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f,
+			1e9f, 1e10f };
+
+	// bytes used to preload the sites of a chromosome, 0 to disable
+	private long memoryLimit = 0;
+
+	private String indexChromosome;
+
+	// null if the chromosome did not fit into memoryLimit
+	private SitesIndex index;
+
 	public static String COLUMN_ID = "ID";
 
 	public static String COLUMN_AAF_PREFIX = "AAF_";
@@ -30,9 +108,19 @@ public class SitesFileReader {
 
 	public static String COLUMN_ALT = "ALT";
 
+	public static String COLUMN_CHROM = "CHROM";
+
+	public static String COLUMN_POS = "POS";
+
+
+	// used by other implementations
+	protected SitesFileReader() {
+
+	}
 
 	public SitesFileReader(String filename, String population) throws IOException {
 		this.population = population;
+		this.filename = filename;
 		if (!new File(filename).exists()) {
 			throw new IOException("File '" + filename + "' not found.");
 		}
@@ -52,6 +140,8 @@ public class SitesFileReader {
 	protected void parseHeader(String line) throws IOException {
 		// parse header
 		String[] tiles = line.split("\t");
+		List<Integer> aafColumns = new ArrayList<Integer>();
+		List<String> aafPopulations = new ArrayList<String>();
 		int i = 0;
 		for (String tile : tiles) {
 			if (tile.equalsIgnoreCase(COLUMN_ID)) {
@@ -66,9 +156,27 @@ public class SitesFileReader {
 			if (tile.equalsIgnoreCase(COLUMN_AAF_PREFIX + population)) {
 				popColumn = i;
 			}
+			if (tile.regionMatches(true, 0, COLUMN_AAF_PREFIX, 0, COLUMN_AAF_PREFIX.length())) {
+				aafColumns.add(i);
+				aafPopulations.add(tile.substring(COLUMN_AAF_PREFIX.length()));
+			}
+			if (tile.equalsIgnoreCase(COLUMN_CHROM)) {
+				chromosomeColumn = i;
+			}
+			if (tile.equalsIgnoreCase(COLUMN_POS)) {
+				positionColumn = i;
+			}
 			i++;
 		}
 
+		populationColumns = new int[aafColumns.size()];
+		for (int j = 0; j < populationColumns.length; j++) {
+			populationColumns[j] = aafColumns.get(j);
+		}
+		populations = aafPopulations.toArray(new String[0]);
+
+		updateProjection();
+
 		// Validation: Check if all required columns have been found
 		if (idColumn == -1) {
 			throw new IOException("Column '" + COLUMN_ID + "' not found in file.");
@@ -82,37 +190,352 @@ public class SitesFileReader {
 
 	}
 
+	// columns sliced from each line
+	private void updateProjection() {
+		maxColumn = Math.max(Math.max(Math.max(idColumn, refColumn), Math.max(altColumn, popColumn)),
+				Math.max(chromosomeColumn, positionColumn));
+		if (allPopulations) {
+			for (int column : populationColumns) {
+				maxColumn = Math.max(maxColumn, column);
+			}
+		}
+		columnStarts = new int[maxColumn + 1];
+		columnEnds = new int[maxColumn + 1];
+	}
+
+	/**
+	 * Returns the populations of all AAF columns in the order of
+	 * SitesEntry.getPopulationFrequencies.
+	 */
+	public String[] getPopulations() {
+		return populations;
+	}
+
+	/**
+	 * Reads the frequencies of all populations into each entry. Sites are then
+	 * not preloaded into memory.
+	 */
+	public void setAllPopulations(boolean allPopulations) {
+		this.allPopulations = allPopulations;
+		updateProjection();
+	}
+
+	protected boolean isAllPopulations() {
+		return allPopulations;
+	}
+
+	/**
+	 * Returns all entries at the given position. Entries are reused and only
+	 * valid until the next lookup.
+	 */
 	public List<SitesEntry> findByPosition(String chromosome, int position) throws IOException {
-		TabixReader.Iterator iterator = tabixReader.query(chromosome, position - 1, position);
-		List<SitesEntry> entries = new ArrayList<>();
+		findByPosition(chromosome, position, results);
+		return results.toList();
+	}
+
+	/**
+	 * Replaces the content of result with all entries at the given position.
+	 * Lookups with ascending positions advance a cursor through the file; a
+	 * tabix query is only used for a new chromosome, a position before the
+	 * last one or a gap larger than MAX_GAP. No objects are allocated once the
+	 * entries of result have been created.
+	 */
+	public void findByPosition(String chromosome, int position, SitesEntries result) throws IOException {
+
+		result.clear();
+
+		if (chromosomeColumn == -1 || positionColumn == -1) {
+			query(chromosome, position, result);
+			return;
+		}
+
+		if (useFilter) {
+			if (filter == null) {
+				filter = getFilter();
+			}
+			if (!filter.mightContain(chromosome, position)) {
+				return;
+			}
+		}
+
+		if (memoryLimit > 0 && !allPopulations) {
+			if (!chromosome.equals(indexChromosome)) {
+				indexChromosome = chromosome;
+				index = loadIndex(chromosome);
+			}
+			if (index != null) {
+				index.find(position, result);
+				return;
+			}
+		}
+
+		if (chromosome.equals(cursorChromosome) && position == lastPosition) {
+			result.addAll(lastEntries);
+			return;
+		}
+
+		if (cursor == null || !chromosome.equals(cursorChromosome) || position < lastPosition
+				|| (nextLine != null && position - nextPosition > MAX_GAP)) {
+			seek(chromosome, position);
+		}
 
+		lastEntries.clear();
+
+		while (nextLine != null && nextPosition <= position) {
+			if (nextPosition == position) {
+				// columns of nextLine are already sliced by advance
+				parseEntry(nextLine, lastEntries.add());
+			}
+			advance();
+		}
+
+		lastPosition = position;
+		result.addAll(lastEntries);
+	}
+
+	/**
+	 * Loads all sites of a chromosome into primitive arrays. Returns null if
+	 * they need more than memoryLimit bytes.
+	 */
+	private SitesIndex loadIndex(String chromosome) throws IOException {
+		SitesIndex index = new SitesIndex(memoryLimit);
+		TabixReader.Iterator iterator = tabixReader.query(chromosome, 0, Integer.MAX_VALUE);
+		String line;
+		while ((line = iterator.next()) != null) {
+			sliceColumns(line);
+			float frequency = Float.NaN;
+			if (popColumn != -1 && !isMissing(line, popColumn)) {
+				frequency = parseFloat(line, popColumn);
+			}
+			if (!index.add(parseInt(line, positionColumn), line.charAt(columnStarts[refColumn]),
+					line.charAt(columnStarts[altColumn]), getColumn(line, idColumn), frequency)) {
+				return null;
+			}
+		}
+		return index;
+	}
+
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Answers lookups of positions that are not in the sites file by a
+	 * SitesFilter. The filter is loaded from the directory of the sites file
+	 * or created by the first lookup and stored there if possible.
+	 */
+	public void setFilter(boolean useFilter) {
+		this.useFilter = useFilter;
+	}
+
+	private SitesFilter getFilter() throws IOException {
+		File file = new File(filename);
+		String path = file.getAbsolutePath();
+		long length = file.length();
+		long lastModified = file.lastModified();
+		FilterEntry entry;
+		synchronized (filters) {
+			entry = filters.get(path);
+			if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+				entry = new FilterEntry(length, lastModified);
+				filters.put(path, entry);
+			}
+		}
+		// readers of other files are not blocked while a filter is created
+		synchronized (entry) {
+			if (entry.filter == null) {
+				SitesFilter filter = SitesFilter.load(filename);
+				if (filter == null) {
+					filter = createFilter();
+					filter.save(filename);
+				}
+				entry.filter = filter;
+			}
+			return entry.filter;
+		}
+	}
+
+	// the filter is sized by a first pass that only counts lines
+	private SitesFilter createFilter() throws IOException {
+		SitesFilter filter = SitesFilter.create(countLines());
+		LineReader reader = new LineReader(openTxtOrGzipStream(filename));
+		// skip header
+		reader.next();
+		while (reader.next()) {
+			String line = reader.get();
+			if (line.isEmpty()) {
+				continue;
+			}
+			sliceColumns(line);
+			filter.add(SitesFilter.hash(getColumn(line, chromosomeColumn), parseInt(line, positionColumn)));
+		}
+		reader.close();
+		return filter;
+	}
+
+	private long countLines() throws IOException {
+		InputStream in = openTxtOrGzipStream(filename);
+		byte[] buffer = new byte[64 * 1024];
+		long lines = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				if (buffer[i] == '\n') {
+					lines++;
+				}
+			}
+		}
+		in.close();
+		return lines;
+	}
+
+	protected List<SitesEntry> query(String chromosome, int position) throws IOException {
+		results.clear();
+		query(chromosome, position, results);
+		return results.toList();
+	}
+
+	private void query(String chromosome, int position, SitesEntries result) throws IOException {
+		TabixReader.Iterator iterator = tabixReader.query(chromosome, position - 1, position);
 		String line;
 		while ((line = iterator.next()) != null) {
-			entries.add(parseLine(line));
+			sliceColumns(line);
+			parseEntry(line, result.add());
+		}
+	}
+
+	// opens a cursor at the first line with a position >= position
+	private void seek(String chromosome, int position) throws IOException {
+		cursor = tabixReader.query(chromosome, position - 1, Integer.MAX_VALUE);
+		cursorChromosome = chromosome;
+		lastPosition = -1;
+		advance();
+	}
+
+	private void advance() throws IOException {
+		nextLine = cursor.next();
+		while (nextLine != null) {
+			sliceColumns(nextLine);
+			if (columnEquals(nextLine, chromosomeColumn, cursorChromosome)) {
+				nextPosition = parseInt(nextLine, positionColumn);
+				return;
+			}
+			nextLine = cursor.next();
+		}
+	}
+
+	// finds the projected columns without splitting the whole line
+	private void sliceColumns(String line) throws IOException {
+		int column = 0;
+		int start = 0;
+		int length = line.length();
+		for (int i = 0; i <= length && column <= maxColumn; i++) {
+			if (i == length || line.charAt(i) == '\t') {
+				columnStarts[column] = start;
+				columnEnds[column] = i;
+				column++;
+				start = i + 1;
+			}
+		}
+		if (column <= maxColumn) {
+			throw new IOException("Line '" + line + "' has only " + column + " columns, expected at least "
+					+ (maxColumn + 1) + ".");
 		}
+	}
 
-		return entries;
+	private String getColumn(String line, int column) {
+		return line.substring(columnStarts[column], columnEnds[column]);
 	}
 
+	private boolean columnEquals(String line, int column, String value) {
+		int length = columnEnds[column] - columnStarts[column];
+		return length == value.length() && line.regionMatches(columnStarts[column], value, 0, length);
+	}
+
+	private boolean isMissing(String line, int column) {
+		return columnEnds[column] - columnStarts[column] == 1 && line.charAt(columnStarts[column]) == '.';
+	}
+
+	private int parseInt(String line, int column) {
+		int start = columnStarts[column];
+		int end = columnEnds[column];
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = line.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+				return Integer.parseInt(getColumn(line, column));
+			}
+			value = value * 10 + digit;
+		}
+		if (start == end) {
+			return Integer.parseInt("");
+		}
+		return value;
+	}
+
+	/**
+	 * Parses plain decimals with up to 24 bits of digits and 10 fraction
+	 * digits as a single float division of two exact floats, which gives the
+	 * same result as Float.parseFloat. All other values use Float.parseFloat.
+	 */
+	private float parseFloat(String line, int column) {
+		int start = columnStarts[column];
+		int end = columnEnds[column];
+		int i = start;
+		boolean negative = false;
+		if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+			negative = line.charAt(i) == '-';
+			i++;
+		}
+		int mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (fraction) {
+					fractionDigits++;
+				}
+				if (mantissa > (1 << 24) || fractionDigits >= POWERS_OF_TEN.length) {
+					return Float.parseFloat(getColumn(line, column));
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				return Float.parseFloat(getColumn(line, column));
+			}
+		}
+		if (digits == 0) {
+			return Float.parseFloat(getColumn(line, column));
+		}
+		float value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
 
 	public void close() {
 		tabixReader.close();
 	}
 
-	protected SitesEntry parseLine(String line) {
-		String[] tiles = line.split("\t");
+	protected SitesEntry parseLine(String line) throws IOException {
+		sliceColumns(line);
+		return parseEntry(line, new SitesEntry());
+	}
 
-		SitesEntry entry = new SitesEntry();
-		entry.setRsId(tiles[idColumn]);
-		entry.setRefAllele(tiles[refColumn].charAt(0));
-		entry.setAltAllele(tiles[altColumn].charAt(0));
+	// fills an entry from the columns of the last sliced line
+	private SitesEntry parseEntry(String line, SitesEntry entry) {
+		entry.setRsId(line, columnStarts[idColumn], columnEnds[idColumn]);
+		entry.setRefAllele(line.charAt(columnStarts[refColumn]));
+		entry.setAltAllele(line.charAt(columnStarts[altColumn]));
 		entry.setType("-");
 
 		float aaf = 0;
 
 		if (popColumn != -1) {
-			if (!tiles[popColumn].equals(".")) {
-				aaf = Float.parseFloat(tiles[popColumn]);
+			if (!isMissing(line, popColumn)) {
+				aaf = parseFloat(line, popColumn);
 				entry.setFrequencies(true);
 			} else {
 				entry.setFrequencies(false);
@@ -124,6 +547,18 @@ public class SitesFileReader {
 		entry.setRefFrequency(1 - aaf);
 		entry.setAltFrequency(aaf);
 
+		if (allPopulations) {
+			float[] frequencies = entry.getPopulationFrequencies();
+			if (frequencies == null || frequencies.length != populationColumns.length) {
+				frequencies = new float[populationColumns.length];
+				entry.setPopulationFrequencies(frequencies);
+			}
+			for (int i = 0; i < populationColumns.length; i++) {
+				int column = populationColumns[i];
+				frequencies[i] = isMissing(line, column) ? Float.NaN : parseFloat(line, column);
+			}
+		}
+
 		return entry;
 	}
 
@@ -0,0 +1,154 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bloom filter of the positions of a sites file. mightContain is false for
+ * positions that are certainly not in the file, about 1% of the missing
+ * positions are reported as possible hits. Filters are stored next to the
+ * sites file with the size and modification time of the sites file, so a
+ * changed panel gets a new filter.
+ */
+public class SitesFilter {
+
+	public static final String EXTENSION = ".filter";
+
+	private static final byte[] MAGIC = "SITESFLT".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int VERSION = 1;
+
+	private static final int BITS_PER_SITE = 10;
+
+	private static final int HASHES = 7;
+
+	private long[] words;
+
+	private long bits;
+
+	private SitesFilter(long sites) {
+		words = new long[(int) Math.max(1, (sites * BITS_PER_SITE + 63) / 64)];
+		bits = words.length * 64L;
+	}
+
+	private SitesFilter(long[] words) {
+		this.words = words;
+		this.bits = words.length * 64L;
+	}
+
+	/**
+	 * Creates an empty filter for the given number of sites.
+	 */
+	static SitesFilter create(long sites) {
+		return new SitesFilter(sites);
+	}
+
+	static long hash(String chromosome, int position) {
+		// fmix64 of MurmurHash3
+		long hash = chromosome.hashCode() * 0x9E3779B97F4A7C15L + position;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	void add(long hash) {
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = ((hash1 + i * hash2) & 0xFFFFFFFFL) % bits;
+			words[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	public boolean mightContain(String chromosome, int position) {
+		long hash = hash(chromosome, position);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = ((hash1 + i * hash2) & 0xFFFFFFFFL) % bits;
+			if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the filter of a sites file. Returns null if it does not exist or
+	 * was created for another version of the sites file.
+	 */
+	static SitesFilter load(String sitesFile) throws IOException {
+
+		File sites = new File(sitesFile);
+		File file = new File(sitesFile + EXTENSION);
+		if (!file.exists()) {
+			return null;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+				return null;
+			}
+			if (in.readLong() != sites.length() || in.readLong() != sites.lastModified()) {
+				return null;
+			}
+			long[] words = new long[in.readInt()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = in.readLong();
+			}
+			return new SitesFilter(words);
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Writes the filter next to the sites file. Returns false if the
+	 * directory of the sites file is not writable.
+	 */
+	boolean save(String sitesFile) {
+
+		File sites = new File(sitesFile);
+		File file = new File(sitesFile + EXTENSION);
+		File tempFile = new File(sitesFile + EXTENSION + "." + System.nanoTime() + ".tmp");
+
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024));
+			try {
+				out.write(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(sites.length());
+				out.writeLong(sites.lastModified());
+				out.writeInt(words.length);
+				for (long word : words) {
+					out.writeLong(word);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			return false;
+		}
+
+		// readers never see incomplete files
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			return false;
+		}
+		return true;
+
+	}
+
+}
@@ -0,0 +1,166 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sites of one chromosome in parallel primitive arrays. Lookups use a
+ * galloping search starting at the last result, so ascending lookups are
+ * cheap. Loading stops when the arrays would exceed a memory limit.
+ */
+public class SitesIndex {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// bytes per entry without rsID: position, ref, alt, frequency, rsID offset
+	private static final int ENTRY_BYTES = 4 + 1 + 1 + 4 + 4;
+
+	private long memoryLimit;
+
+	private int size = 0;
+
+	private int[] positions = new int[INITIAL_CAPACITY];
+
+	private byte[] refAlleles = new byte[INITIAL_CAPACITY];
+
+	private byte[] altAlleles = new byte[INITIAL_CAPACITY];
+
+	// NaN if the entry has no frequency
+	private float[] frequencies = new float[INITIAL_CAPACITY];
+
+	private int[] idOffsets = new int[INITIAL_CAPACITY + 1];
+
+	private byte[] ids = new byte[INITIAL_CAPACITY * 8];
+
+	private int idsLength = 0;
+
+	// view of ids used by the entries, created by the first lookup
+	private ByteBuffer idsBuffer;
+
+	private int cursor = 0;
+
+	public SitesIndex(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Adds an entry. Returns false if the index would exceed the memory limit
+	 * or positions are not sorted; the index can not be used in this case.
+	 */
+	public boolean add(int position, char ref, char alt, String id, float frequency) {
+
+		if (size > 0 && position < positions[size - 1]) {
+			return false;
+		}
+		if (ref > 0xFF || alt > 0xFF) {
+			return false;
+		}
+
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+
+		int capacity = positions.length;
+		if (size == capacity) {
+			capacity += capacity >> 1;
+		}
+		int idsCapacity = ids.length;
+		while (idsLength + idBytes.length > idsCapacity) {
+			idsCapacity += idsCapacity >> 1;
+		}
+
+		if (capacity != positions.length || idsCapacity != ids.length) {
+			if ((long) capacity * ENTRY_BYTES + idsCapacity > memoryLimit) {
+				return false;
+			}
+			positions = Arrays.copyOf(positions, capacity);
+			refAlleles = Arrays.copyOf(refAlleles, capacity);
+			altAlleles = Arrays.copyOf(altAlleles, capacity);
+			frequencies = Arrays.copyOf(frequencies, capacity);
+			idOffsets = Arrays.copyOf(idOffsets, capacity + 1);
+			ids = Arrays.copyOf(ids, idsCapacity);
+			idsBuffer = null;
+		}
+
+		positions[size] = position;
+		refAlleles[size] = (byte) ref;
+		altAlleles[size] = (byte) alt;
+		frequencies[size] = frequency;
+		System.arraycopy(idBytes, 0, ids, idsLength, idBytes.length);
+		idsLength += idBytes.length;
+		size++;
+		idOffsets[size] = idsLength;
+
+		return true;
+
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds all entries at the given position to entries.
+	 */
+	public void find(int position, SitesEntries entries) {
+
+		int low;
+		int high;
+
+		if (cursor == 0 || positions[cursor - 1] < position) {
+			// gallop forward from the last result
+			low = cursor;
+			high = cursor;
+			int step = 1;
+			while (high < size && positions[high] < position) {
+				low = high + 1;
+				high = cursor + step;
+				step <<= 1;
+			}
+			high = Math.min(high, size);
+		} else {
+			low = 0;
+			high = cursor - 1;
+		}
+
+		// first entry with a position >= position
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (positions[middle] < position) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		cursor = low;
+
+		for (int i = low; i < size && positions[i] == position; i++) {
+			setEntry(i, entries.add());
+		}
+
+	}
+
+	private void setEntry(int index, SitesEntry entry) {
+
+		if (idsBuffer == null) {
+			idsBuffer = ByteBuffer.wrap(ids);
+		}
+		entry.setRsId(idsBuffer, idOffsets[index], idOffsets[index + 1]);
+		entry.setRefAllele((char) (refAlleles[index] & 0xFF));
+		entry.setAltAllele((char) (altAlleles[index] & 0xFF));
+		entry.setType("-");
+
+		float aaf = 0;
+
+		if (!Float.isNaN(frequencies[index])) {
+			aaf = frequencies[index];
+			entry.setFrequencies(true);
+		} else {
+			entry.setFrequencies(false);
+		}
+
+		entry.setRefFrequency(1 - aaf);
+		entry.setAltFrequency(aaf);
+
+	}
+
+}
@@ -0,0 +1,184 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes lines with a BGzipLineWriter on its own thread. Lines are copied
+ * into batches which are handed to the writer thread in order. The number of
+ * batches per writer is fixed, so a slow writer blocks the caller instead of
+ * buffering the whole file. close() returns after all lines are written.
+ * Positions of lines are not available, they are only known by the writer
+ * thread.
+ */
+public class AsyncBGzipLineWriter implements ILineWriter {
+
+	private static final int BATCH_SIZE = 256 * 1024;
+
+	// batches per writer: one filled by the caller, the others queued
+	private static final int BATCHES = 4;
+
+	private BGzipLineWriter writer;
+
+	private BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(BATCHES);
+
+	private BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(BATCHES);
+
+	private int batches = 1;
+
+	private Batch batch = new Batch();
+
+	private Thread thread;
+
+	private volatile IOException error;
+
+	private boolean closed = false;
+
+	// lines of a batch are stored one after another in data
+	private static class Batch {
+
+		private byte[] data = new byte[BATCH_SIZE];
+
+		private int length = 0;
+
+		private int[] ends = new int[1024];
+
+		private int lines = 0;
+
+		private boolean last = false;
+
+		private void add(byte[] buffer, int offset, int count) {
+			if (length + count > data.length) {
+				byte[] newData = new byte[Math.max(data.length * 2, length + count)];
+				System.arraycopy(data, 0, newData, 0, length);
+				data = newData;
+			}
+			if (lines == ends.length) {
+				int[] newEnds = new int[ends.length * 2];
+				System.arraycopy(ends, 0, newEnds, 0, lines);
+				ends = newEnds;
+			}
+			System.arraycopy(buffer, offset, data, length, count);
+			length += count;
+			ends[lines++] = length;
+		}
+
+		private void clear() {
+			length = 0;
+			lines = 0;
+		}
+
+	}
+
+	public AsyncBGzipLineWriter(String filename, int level, boolean createIndex) throws IOException {
+		writer = new BGzipLineWriter(filename, level, createIndex);
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBatches();
+			}
+		}, "chunk-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void write(String line) throws IOException {
+		byte[] bytes = line.getBytes();
+		write(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void write(MinimalVariantContext variant) throws IOException {
+		if (variant.getRawBuffer() != null) {
+			write(variant.getRawBuffer(), variant.getRawOffset(), variant.getRawLength());
+		} else {
+			write(variant.getRawLine());
+		}
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if (batch.length > 0 && batch.length + length > BATCH_SIZE) {
+			flush(false);
+		}
+		batch.add(buffer, offset, length);
+	}
+
+	// hands the current batch to the writer thread and takes an empty one
+	private void flush(boolean last) throws IOException {
+		if (error != null && !last) {
+			throw error;
+		}
+		try {
+			batch.last = last;
+			queue.put(batch);
+			if (last) {
+				return;
+			}
+			Batch next = free.poll();
+			if (next == null) {
+				if (batches < BATCHES) {
+					batches++;
+					next = new Batch();
+				} else {
+					next = free.take();
+				}
+			}
+			next.clear();
+			batch = next;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Writing of chunk interrupted.");
+		}
+	}
+
+	private void writeBatches() {
+		try {
+			while (true) {
+				Batch next = queue.take();
+				if (error == null) {
+					try {
+						int start = 0;
+						for (int i = 0; i < next.lines; i++) {
+							writer.write(next.data, start, next.ends[i] - start);
+							start = next.ends[i];
+						}
+					} catch (IOException e) {
+						// reported to the caller by the next flush or close
+						error = e;
+					} catch (RuntimeException e) {
+						error = new IOException(e);
+					}
+				}
+				if (next.last) {
+					return;
+				}
+				free.put(next);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		flush(true);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Writing of chunk interrupted.");
+		}
+		writer.close();
+		if (error != null) {
+			throw error;
+		}
+	}
+
+}
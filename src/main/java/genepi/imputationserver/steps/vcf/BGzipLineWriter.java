@@ -1,37 +1,149 @@
 package genepi.imputationserver.steps.vcf;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.zip.GZIPOutputStream;
 
 import htsjdk.samtools.util.BlockCompressedOutputStream;
 
-public class BGzipLineWriter {
+/**
+ * Writes lines to a BGZF file. Blocks are compressed in parallel by a
+ * ParallelBGzipOutputStream. Optionally a tabix index of the lines is built
+ * while writing and saved next to the file on close.
+ */
+public class BGzipLineWriter implements ILineWriter {
 
-	private BufferedWriter bw;
+	private static final byte[] NEW_LINE = System.lineSeparator().getBytes();
+
+	// names of compression levels
+	public static final String COMPRESSION_STORE = "store";
+
+	public static final String COMPRESSION_FAST = "fast";
+
+	public static final String COMPRESSION_DEFAULT = "default";
+
+	public static final String COMPRESSION_BEST = "best";
+
+	private String filename;
+
+	private ParallelBGzipOutputStream out;
+
+	private TabixIndexBuilder index;
 
 	private boolean first = true;
 
+	private long lineStart = 0;
+
+	private boolean closed = false;
+
 	public BGzipLineWriter(String filename) throws IOException {
-		bw = new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(new File(filename))));
+		this(filename, BlockCompressedOutputStream.getDefaultCompressionLevel());
+	}
+
+	public BGzipLineWriter(String filename, int level) throws IOException {
+		this(filename, level, false);
+	}
+
+	public BGzipLineWriter(String filename, int level, boolean createIndex) throws IOException {
+		this.filename = filename;
+		out = new ParallelBGzipOutputStream(filename, level);
+		if (createIndex) {
+			index = new TabixIndexBuilder();
+		}
 		first = true;
 	}
 
+	/**
+	 * Returns the deflate level of a compression name (store, fast, default or
+	 * best).
+	 */
+	public static int getCompressionLevel(String compression) {
+		if (COMPRESSION_STORE.equalsIgnoreCase(compression)) {
+			return 0;
+		} else if (COMPRESSION_FAST.equalsIgnoreCase(compression)) {
+			return 1;
+		} else if (COMPRESSION_DEFAULT.equalsIgnoreCase(compression)) {
+			return BlockCompressedOutputStream.getDefaultCompressionLevel();
+		} else if (COMPRESSION_BEST.equalsIgnoreCase(compression)) {
+			return 9;
+		}
+		throw new IllegalArgumentException("Unknown compression '" + compression + "'. Use " + COMPRESSION_STORE
+				+ ", " + COMPRESSION_FAST + ", " + COMPRESSION_DEFAULT + " or " + COMPRESSION_BEST + ".");
+	}
+
+	@Override
 	public void write(String line) throws IOException {
+		byte[] bytes = line.getBytes();
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a line without decoding it. Bytes are copied directly into the
+	 * block buffer of the BGZF stream.
+	 */
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
 		if (first) {
 			first = false;
 		} else {
-			bw.newLine();
+			out.write(NEW_LINE);
+		}
+
+		lineStart = out.getPosition();
+		if (index != null) {
+			index.add(buffer, offset, length, lineStart);
+		}
+
+		out.write(buffer, offset, length);
+	}
+
+	/**
+	 * Writes the raw line of a variant. Lines parsed from a byte buffer are
+	 * written as they were read.
+	 */
+	@Override
+	public void write(MinimalVariantContext variant) throws IOException {
+		if (variant.getRawBuffer() != null) {
+			write(variant.getRawBuffer(), variant.getRawOffset(), variant.getRawLength());
+		} else {
+			write(variant.getRawLine());
 		}
+	}
+
+	/**
+	 * Returns the position of the last written line in the stream, see
+	 * ParallelBGzipOutputStream.getPosition.
+	 */
+	public long getLineStart() {
+		return lineStart;
+	}
 
-		bw.write(line);
+	/**
+	 * Returns the position after the last written line.
+	 */
+	public long getPosition() {
+		return out.getPosition();
 	}
 
+	/**
+	 * Returns the BGZF virtual offset of a position, available after close.
+	 */
+	public long getVirtualOffset(long position) {
+		return out.getVirtualOffset(position);
+	}
+
+	/**
+	 * Closes the file and writes the tabix index if enabled.
+	 */
+	@Override
 	public void close() throws IOException {
-		bw.close();
+		if (closed) {
+			return;
+		}
+		closed = true;
+		long end = out.getPosition();
+		out.close();
+		if (index != null) {
+			index.write(filename + ".tbi", end, out);
+		}
 	}
 
 }
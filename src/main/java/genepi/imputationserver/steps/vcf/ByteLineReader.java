@@ -0,0 +1,113 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads lines from an input stream into a reusable byte buffer. A line is
+ * only valid until the next call of next(), no String objects are created.
+ */
+public class ByteLineReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private InputStream in;
+
+	private byte[] buffer;
+
+	// valid data in buffer: [position, limit)
+	private int position = 0;
+
+	private int limit = 0;
+
+	private int lineStart = 0;
+
+	private int lineLength = 0;
+
+	private boolean eof = false;
+
+	public ByteLineReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+
+	public ByteLineReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public boolean next() throws IOException {
+
+		int scan = position;
+
+		while (true) {
+
+			// search for end of line in current data
+			while (scan < limit) {
+				if (buffer[scan] == '\n') {
+					setLine(position, scan);
+					position = scan + 1;
+					return true;
+				}
+				scan++;
+			}
+
+			if (eof) {
+				if (position < limit) {
+					// last line without line break
+					setLine(position, limit);
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+
+			// no line break found: move data to start of buffer or grow buffer
+			int remaining = limit - position;
+			if (position > 0) {
+				System.arraycopy(buffer, position, buffer, 0, remaining);
+			} else if (remaining == buffer.length) {
+				byte[] newBuffer = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, newBuffer, 0, remaining);
+				buffer = newBuffer;
+			}
+			scan = remaining;
+			position = 0;
+			limit = remaining;
+
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read == -1) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+
+		}
+
+	}
+
+	private void setLine(int start, int end) {
+		// strip windows line endings
+		if (end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		lineStart = start;
+		lineLength = end - start;
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return lineStart;
+	}
+
+	public int getLength() {
+		return lineLength;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
@@ -1,18 +1,16 @@
 package genepi.imputationserver.steps.vcf;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Vector;
 
 import genepi.io.FileUtil;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
-import htsjdk.variant.vcf.VCFFileReader;
-import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 
 public class FastVCFFileReader {
 
@@ -28,30 +26,58 @@ public class FastVCFFileReader {
 
 	private String filename;
 
-	protected BufferedReader in;
+	protected ByteLineReader in;
 
 	private int lineNumber;
 
-	private String line;
-
 	private VCFLineParser parser;
 
 	public FastVCFFileReader(String filename) throws IOException {
+		this(filename, 1);
+	}
+
+	/**
+	 * @param threads number of threads used to inflate BGZF blocks. Files
+	 *                that are not BGZF compressed are always read by a single
+	 *                thread.
+	 */
+	public FastVCFFileReader(String filename, int threads) throws IOException {
 		// load header
-		VCFFileReader reader = new VCFFileReader(new File(filename), false);
-		VCFHeader header = reader.getFileHeader();
-		samples = header.getGenotypeSamples();
+		samples = VcfHeader.read(filename).getSamples();
 		samplesCount = samples.size();
 		variantContext = new MinimalVariantContext(samplesCount);
-		reader.close();
 
 		parser = new VCFLineParser(samplesCount);
 
 		this.filename = filename;
-		FileInputStream inputStream = new FileInputStream(filename);
-		InputStream in2 = FileUtil.decompressStream(inputStream);
-		this.in = new BufferedReader(new InputStreamReader(in2));
+		InputStream in2;
+		if (threads > 1 && ParallelBGzipInputStream.isBGzipFile(filename)) {
+			in2 = new ParallelBGzipInputStream(filename, threads);
+		} else {
+			FileInputStream inputStream = new FileInputStream(filename);
+			in2 = FileUtil.decompressStream(inputStream);
+		}
+		this.in = new ByteLineReader(in2);
+
+	}
+
+	/**
+	 * Starts reading at a BGZF virtual offset, e.g. taken from a tabix index.
+	 * The header is read separately and available right away.
+	 */
+	public FastVCFFileReader(String filename, long virtualOffset) throws IOException {
+		VcfHeader vcfHeader = VcfHeader.read(filename);
+		samples = vcfHeader.getSamples();
+		samplesCount = samples.size();
+		variantContext = new MinimalVariantContext(samplesCount);
+		header.addAll(vcfHeader.getLines());
 
+		parser = new VCFLineParser(samplesCount);
+
+		this.filename = filename;
+		BlockCompressedInputStream in2 = new BlockCompressedInputStream(new File(filename));
+		in2.seek(virtualOffset);
+		this.in = new ByteLineReader(in2);
 	}
 
 	public List<String> getGenotypedSamples() {
@@ -72,21 +98,24 @@ public class FastVCFFileReader {
 
 	public boolean next() throws IOException {
 		while(true) {
-			if ((this.line = this.in.readLine()) != null) {
+			if (this.in.next()) {
 				try {
 					this.lineNumber++;
-					if (this.line.trim().isEmpty()) {
+					byte[] buffer = this.in.getBuffer();
+					int offset = this.in.getOffset();
+					int length = this.in.getLength();
+					if (isBlank(buffer, offset, length)) {
 						continue;
 					}
 
 					// Check if the line starts with '#' and skip processing for header lines
-					if (this.line.startsWith("#")) {
-						header.add(this.line);
+					if (buffer[offset] == '#') {
+						header.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
 						continue;
 					}
 
 					// Parse non-header lines
-					this.parseLine(this.line);
+					this.parseLine(buffer, offset, length);
 					return true;
 				} catch (Exception var2) {
 					throw new IOException(this.filename + ": Line " + this.lineNumber + ": " + var2.getMessage());
@@ -97,8 +126,17 @@ public class FastVCFFileReader {
 		}
 	}
 
-	protected void parseLine(String line) throws IOException {
-		variantContext = parser.parseLine(line);
+	private boolean isBlank(byte[] buffer, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if ((buffer[i] & 0xFF) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected void parseLine(byte[] buffer, int offset, int length) throws IOException {
+		variantContext = parser.parseLine(buffer, offset, length);
 		if (variantContext.getNSamples() != samplesCount) {
 			throw new IOException("Line " + lineNumber + ": different number of samples.");
 		}
@@ -0,0 +1,19 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+
+/**
+ * Writes the lines of a BGZF file, see BGzipLineWriter and
+ * AsyncBGzipLineWriter.
+ */
+public interface ILineWriter {
+
+	public void write(String line) throws IOException;
+
+	public void write(byte[] buffer, int offset, int length) throws IOException;
+
+	public void write(MinimalVariantContext variant) throws IOException;
+
+	public void close() throws IOException;
+
+}
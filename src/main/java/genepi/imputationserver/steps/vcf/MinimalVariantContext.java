@@ -1,5 +1,7 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.nio.charset.StandardCharsets;
+
 public class MinimalVariantContext {
 
 	public final static String NO_FILTERS = "";
@@ -26,14 +28,42 @@ public class MinimalVariantContext {
 
 	private String rawLine;
 
+	private byte[] rawBuffer;
+
+	private int rawOffset;
+
+	private int rawLength;
+
 	private String filters;
 
-	private boolean[] genotypes;
+	// called flags, one bit per sample
+	private long[] called;
 
 	private String genotype = null;
 
+	private boolean unphased = false;
+
+	// set when the sample columns have not been scanned yet
+	private VCFLineParser genotypeParser;
+
 	public MinimalVariantContext(int samples) {
-		genotypes = new boolean[samples];
+		called = new long[getWords(samples)];
+	}
+
+	public static int getWords(int samples) {
+		return (samples + 63) >>> 6;
+	}
+
+	void setGenotypeParser(VCFLineParser genotypeParser) {
+		this.genotypeParser = genotypeParser;
+	}
+
+	private void parseGenotypes() {
+		if (genotypeParser != null) {
+			VCFLineParser parser = genotypeParser;
+			genotypeParser = null;
+			parser.parseGenotypes();
+		}
 	}
 
 	public void setId(String id) {
@@ -58,6 +88,7 @@ public class MinimalVariantContext {
 	}
 
 	public int getHetCount() {
+		parseGenotypes();
 		return hetCount;
 	}
 
@@ -66,6 +97,7 @@ public class MinimalVariantContext {
 	}
 
 	public int getHomRefCount() {
+		parseGenotypes();
 		return homRefCount;
 	}
 
@@ -74,6 +106,7 @@ public class MinimalVariantContext {
 	}
 
 	public int getHomVarCount() {
+		parseGenotypes();
 		return homVarCount;
 	}
 
@@ -82,6 +115,7 @@ public class MinimalVariantContext {
 	}
 
 	public int getNoCallCount() {
+		parseGenotypes();
 		return noCallCount;
 	}
 
@@ -133,12 +167,37 @@ public class MinimalVariantContext {
 
 	public void setRawLine(String rawLine) {
 		this.rawLine = rawLine;
+		this.rawBuffer = null;
+	}
+
+	public void setRawLine(byte[] buffer, int offset, int length) {
+		this.rawLine = null;
+		this.rawBuffer = buffer;
+		this.rawOffset = offset;
+		this.rawLength = length;
 	}
 
 	public String getRawLine() {
+		// decode only when needed
+		if (rawLine == null && rawBuffer != null) {
+			rawLine = new String(rawBuffer, rawOffset, rawLength, StandardCharsets.UTF_8);
+		}
 		return rawLine;
 	}
 
+	// raw bytes of the record, null if the line was set as String
+	byte[] getRawBuffer() {
+		return rawBuffer;
+	}
+
+	int getRawOffset() {
+		return rawOffset;
+	}
+
+	int getRawLength() {
+		return rawLength;
+	}
+
 	public boolean isFiltered() {
 		return filters != null && !filters.isEmpty();
 	}
@@ -160,15 +219,47 @@ public class MinimalVariantContext {
 	}
 
 	public boolean isMonomorphicInSamples() {
+		parseGenotypes();
 		return (homRefCount + noCallCount == nSamples);
 	}
 
 	public void setCalled(int sample, boolean called) {
-		genotypes[sample] = called;
+		if (called) {
+			this.called[sample >>> 6] |= 1L << sample;
+		} else {
+			this.called[sample >>> 6] &= ~(1L << sample);
+		}
+	}
+
+	void setUnphased(boolean unphased) {
+		this.unphased = unphased;
+	}
+
+	/**
+	 * Returns true if a sample column contains a '/'. Set by the genotype pass
+	 * of a VCFLineParser, always false for other variants.
+	 */
+	public boolean hasUnphasedGenotypes() {
+		parseGenotypes();
+		return unphased;
+	}
+
+	void setCalledWord(int word, long called) {
+		this.called[word] = called;
 	}
 
 	public boolean isCalled(int sample) {
-		return genotypes[sample];
+		parseGenotypes();
+		return (called[sample >>> 6] & (1L << sample)) != 0;
+	}
+
+	/**
+	 * Returns the called flags packed into words of 64 samples. Bits of
+	 * samples beyond getNSamples() are zero.
+	 */
+	public long[] getCalledMask() {
+		parseGenotypes();
+		return called;
 	}
 
 	public String getGenotype() {
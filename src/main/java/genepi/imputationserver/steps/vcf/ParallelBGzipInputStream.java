@@ -0,0 +1,317 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a BGZF file by splitting it at block boundaries and inflating
+ * the blocks on a pool of worker threads. Blocks are returned in file order.
+ */
+public class ParallelBGzipInputStream extends InputStream {
+
+	private static final int GZIP_ID1 = 31;
+
+	private static final int GZIP_ID2 = 139;
+
+	private static final int GZIP_CM_DEFLATE = 8;
+
+	private static final int GZIP_FLG_EXTRA = 4;
+
+	private static final int BGZF_ID1 = 66;
+
+	private static final int BGZF_ID2 = 67;
+
+	private static final int HEADER_LENGTH = 12;
+
+	private static final int FOOTER_LENGTH = 8;
+
+	// number of blocks per thread that are inflated ahead of the reader
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	// inflaters of the worker threads, ended when the workers are shut down
+	private final List<Inflater> inflaters = new Vector<Inflater>();
+
+	private final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			Inflater inflater = new Inflater(true);
+			inflaters.add(inflater);
+			return inflater;
+		}
+	};
+
+	private InputStream in;
+
+	private ExecutorService executor;
+
+	private LinkedList<Future<byte[]>> blocks = new LinkedList<Future<byte[]>>();
+
+	private int maxBlocks;
+
+	private byte[] current = new byte[0];
+
+	private int position = 0;
+
+	private boolean eof = false;
+
+	public ParallelBGzipInputStream(String filename, int threads) throws IOException {
+		in = new BufferedInputStream(new FileInputStream(filename), 1024 * 1024);
+		maxBlocks = threads * BLOCKS_PER_THREAD;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "bgzf-inflater");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Checks if the first block of the file has a valid BGZF header.
+	 */
+	public static boolean isBGzipFile(String filename) throws IOException {
+		InputStream in = new FileInputStream(filename);
+		try {
+			byte[] header = new byte[HEADER_LENGTH + 6];
+			if (readFully(in, header, 0, header.length) < header.length) {
+				return false;
+			}
+			return isBGzipHeader(header) && unsignedShort(header, 10) == 6 && (header[12] & 0xFF) == BGZF_ID1
+					&& (header[13] & 0xFF) == BGZF_ID2;
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return current[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int count = Math.min(length, current.length - position);
+		System.arraycopy(current, position, buffer, offset, count);
+		position += count;
+		return count;
+	}
+
+	// makes sure that the current block has unread data
+	private boolean fill() throws IOException {
+		if (position < current.length) {
+			return true;
+		}
+		boolean filled = false;
+		try {
+			filled = fillBlock();
+			return filled;
+		} finally {
+			// workers are not needed after the last block or an error
+			if (!filled) {
+				shutdown();
+			}
+		}
+	}
+
+	private boolean fillBlock() throws IOException {
+		if (!eof && executor.isShutdown()) {
+			throw new IOException("Stream closed.");
+		}
+		while (position >= current.length) {
+
+			while (!eof && blocks.size() < maxBlocks) {
+				final byte[] block = readBlock();
+				if (block == null) {
+					eof = true;
+				} else {
+					blocks.add(executor.submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws Exception {
+							return inflate(block);
+						}
+					}));
+				}
+			}
+
+			if (blocks.isEmpty()) {
+				return false;
+			}
+
+			try {
+				current = blocks.removeFirst().get();
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Decompression interrupted.");
+			} catch (ExecutionException e) {
+				throw new IOException("Decompression of BGZF block failed: " + e.getCause().getMessage());
+			}
+		}
+		return true;
+	}
+
+	// reads one compressed block (header, data and footer), null at end of file
+	private byte[] readBlock() throws IOException {
+
+		byte[] header = new byte[HEADER_LENGTH];
+		int read = readFully(in, header, 0, HEADER_LENGTH);
+		if (read == 0) {
+			return null;
+		}
+		if (read < HEADER_LENGTH) {
+			throw new EOFException("Unexpected end of file in BGZF block header.");
+		}
+		if (!isBGzipHeader(header)) {
+			throw new IOException("Invalid BGZF block header.");
+		}
+
+		int extraLength = unsignedShort(header, 10);
+		byte[] extra = new byte[extraLength];
+		if (readFully(in, extra, 0, extraLength) < extraLength) {
+			throw new EOFException("Unexpected end of file in BGZF block header.");
+		}
+
+		// find BSIZE in BC subfield
+		int blockSize = -1;
+		int i = 0;
+		while (i + 4 <= extraLength) {
+			int length = unsignedShort(extra, i + 2);
+			if ((extra[i] & 0xFF) == BGZF_ID1 && (extra[i + 1] & 0xFF) == BGZF_ID2 && length == 2) {
+				blockSize = unsignedShort(extra, i + 4) + 1;
+			}
+			i += 4 + length;
+		}
+		if (blockSize == -1) {
+			throw new IOException("Invalid BGZF block header: no block size found.");
+		}
+
+		int remaining = blockSize - HEADER_LENGTH - extraLength;
+		if (remaining < FOOTER_LENGTH) {
+			throw new IOException("Invalid BGZF block size " + blockSize + ".");
+		}
+		byte[] block = new byte[remaining];
+		if (readFully(in, block, 0, remaining) < remaining) {
+			throw new EOFException("Unexpected end of file in BGZF block.");
+		}
+		return block;
+	}
+
+	// block contains compressed data followed by CRC32 and ISIZE
+	private byte[] inflate(byte[] block) throws IOException {
+		int dataLength = block.length - FOOTER_LENGTH;
+		int crc = unsignedInt(block, dataLength);
+		int size = unsignedInt(block, dataLength + 4);
+
+		byte[] output = new byte[size];
+		Inflater inflater = this.inflater.get();
+		inflater.reset();
+		inflater.setInput(block, 0, dataLength);
+		try {
+			int inflated = 0;
+			while (inflated < size) {
+				int count = inflater.inflate(output, inflated, size - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				inflated += count;
+			}
+			if (inflated != size) {
+				throw new IOException("BGZF block size mismatch: expected " + size + " bytes, got " + inflated + ".");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed data in BGZF block: " + e.getMessage());
+		}
+
+		CRC32 checksum = new CRC32();
+		checksum.update(output, 0, size);
+		if ((int) checksum.getValue() != crc) {
+			throw new IOException("BGZF block checksum mismatch.");
+		}
+		return output;
+	}
+
+	private static boolean isBGzipHeader(byte[] header) {
+		return (header[0] & 0xFF) == GZIP_ID1 && (header[1] & 0xFF) == GZIP_ID2
+				&& (header[2] & 0xFF) == GZIP_CM_DEFLATE && (header[3] & GZIP_FLG_EXTRA) != 0;
+	}
+
+	private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int read = in.read(buffer, offset + total, length - total);
+			if (read == -1) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private static int unsignedShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+	}
+
+	private static int unsignedInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) | ((buffer[offset + 2] & 0xFF) << 16)
+				| ((buffer[offset + 3] & 0xFF) << 24);
+	}
+
+	// stops the workers and frees the native memory of their inflaters
+	private void shutdown() {
+		if (executor.isShutdown()) {
+			return;
+		}
+		for (Future<byte[]> block : blocks) {
+			block.cancel(true);
+		}
+		blocks.clear();
+		executor.shutdownNow();
+		try {
+			// an inflater can only be ended when no worker uses it
+			if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				for (Inflater inflater : inflaters) {
+					inflater.end();
+				}
+				inflaters.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			shutdown();
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a BGZF file. Data is cut into blocks which are deflated on a
+ * thread pool shared by all streams and written in order, followed by the
+ * BGZF end-of-file block. The output can be read by htsjdk, tabix and
+ * bgzip.
+ */
+public class ParallelBGzipOutputStream extends OutputStream {
+
+	// uncompressed bytes per block, as in bgzip: a stored block still fits into 64 KB
+	public static final int BLOCK_SIZE = 0xff00;
+
+	private static final int MAX_BLOCK_LENGTH = 64 * 1024;
+
+	private static final int HEADER_LENGTH = 18;
+
+	private static final int FOOTER_LENGTH = 8;
+
+	private static final byte[] EMPTY_BLOCK = new byte[] { 31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0, 27,
+			0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	// number of blocks per thread that are deflated ahead of the writer
+	private static final int BLOCKS_PER_THREAD = 2;
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "bgzf-deflater");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// one deflater per thread and compression level -1 to 9
+	private static final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>() {
+		@Override
+		protected Deflater[] initialValue() {
+			return new Deflater[11];
+		}
+	};
+
+	// one output buffer per thread, blocks are copied from it with their final length
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[MAX_BLOCK_LENGTH];
+		}
+	};
+
+	private OutputStream out;
+
+	private int level;
+
+	private LinkedList<Future<byte[]>> blocks = new LinkedList<Future<byte[]>>();
+
+	// input of the pending blocks, reused when their block is written
+	private LinkedList<byte[]> pendingData = new LinkedList<byte[]>();
+
+	private LinkedList<byte[]> freeData = new LinkedList<byte[]>();
+
+	private int maxBlocks = THREADS * BLOCKS_PER_THREAD;
+
+	private byte[] block = new byte[BLOCK_SIZE];
+
+	private int position = 0;
+
+	// number of blocks submitted to the pool
+	private long submittedBlocks = 0;
+
+	// file offsets of all written blocks, used to resolve positions
+	private long[] blockAddresses = new long[1024];
+
+	private int writtenBlocks = 0;
+
+	private long address = 0;
+
+	private boolean closed = false;
+
+	public ParallelBGzipOutputStream(String filename, int level) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(filename), 1024 * 1024);
+		this.level = level;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position == BLOCK_SIZE) {
+			submitBlock();
+		}
+		block[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (position == BLOCK_SIZE) {
+				submitBlock();
+			}
+			int count = Math.min(length, BLOCK_SIZE - position);
+			System.arraycopy(buffer, offset, block, position, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	// deflates the current block on the pool, writes finished blocks if too many are pending
+	private void submitBlock() throws IOException {
+		final byte[] data = block;
+		final int length = position;
+		blocks.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return deflate(data, length, level);
+			}
+		}));
+		pendingData.add(data);
+		block = freeData.isEmpty() ? new byte[BLOCK_SIZE] : freeData.removeFirst();
+		position = 0;
+		submittedBlocks++;
+		while (blocks.size() >= maxBlocks) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		try {
+			Future<byte[]> pending = blocks.removeFirst();
+			byte[] data = pendingData.removeFirst();
+			byte[] bytes = pending.get();
+			freeData.add(data);
+			if (writtenBlocks == blockAddresses.length) {
+				long[] newAddresses = new long[blockAddresses.length * 2];
+				System.arraycopy(blockAddresses, 0, newAddresses, 0, writtenBlocks);
+				blockAddresses = newAddresses;
+			}
+			blockAddresses[writtenBlocks++] = address;
+			address += bytes.length;
+			out.write(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Compression interrupted.");
+		} catch (ExecutionException e) {
+			throw new IOException("Compression of BGZF block failed: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the position of the next byte as block number and offset in the
+	 * block. Positions grow with every byte and are converted into BGZF virtual
+	 * offsets by getVirtualOffset once their block is written.
+	 */
+	public long getPosition() {
+		if (position == BLOCK_SIZE) {
+			return (submittedBlocks + 1) << 16;
+		}
+		return submittedBlocks << 16 | position;
+	}
+
+	/**
+	 * Returns the BGZF virtual offset of a position. The block of the position
+	 * must be written, e.g. by flush or close.
+	 */
+	public long getVirtualOffset(long position) {
+		int blockNumber = (int) (position >>> 16);
+		if (blockNumber > writtenBlocks || (blockNumber == writtenBlocks && (position & 0xffff) != 0)) {
+			throw new IllegalStateException("Block " + blockNumber + " is not written.");
+		}
+		long blockAddress = blockNumber == writtenBlocks ? address : blockAddresses[blockNumber];
+		return blockAddress << 16 | (position & 0xffff);
+	}
+
+	/**
+	 * Returns a complete BGZF block with header, deflated data and footer.
+	 */
+	static byte[] deflate(byte[] data, int length, int level) {
+
+		byte[] output = buffers.get();
+
+		Deflater deflater = getDeflater(level);
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		int compressed = deflater.deflate(output, HEADER_LENGTH, MAX_BLOCK_LENGTH - HEADER_LENGTH - FOOTER_LENGTH);
+		if (!deflater.finished()) {
+			// data does not compress, store it
+			deflater = getDeflater(Deflater.NO_COMPRESSION);
+			deflater.reset();
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			compressed = deflater.deflate(output, HEADER_LENGTH, MAX_BLOCK_LENGTH - HEADER_LENGTH - FOOTER_LENGTH);
+		}
+
+		int blockLength = HEADER_LENGTH + compressed + FOOTER_LENGTH;
+
+		// gzip header with BC extra field holding the block size - 1
+		System.arraycopy(EMPTY_BLOCK, 0, output, 0, 16);
+		writeShort(output, 16, blockLength - 1);
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		writeInt(output, HEADER_LENGTH + compressed, (int) crc.getValue());
+		writeInt(output, HEADER_LENGTH + compressed + 4, length);
+
+		byte[] result = new byte[blockLength];
+		System.arraycopy(output, 0, result, 0, blockLength);
+		return result;
+
+	}
+
+	private static Deflater getDeflater(int level) {
+		Deflater[] levels = deflaters.get();
+		if (levels[level + 1] == null) {
+			levels[level + 1] = new Deflater(level, true);
+		}
+		return levels[level + 1];
+	}
+
+	private static void writeShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		writeShort(buffer, offset, value);
+		writeShort(buffer, offset + 2, value >> 16);
+	}
+
+	/**
+	 * Writes the current block even if it is not full and all pending blocks.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (position > 0) {
+			submitBlock();
+		}
+		while (!blocks.isEmpty()) {
+			writeBlock();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			out.write(EMPTY_BLOCK);
+		} finally {
+			for (Future<byte[]> pending : blocks) {
+				pending.cancel(true);
+			}
+			blocks.clear();
+			pendingData.clear();
+			out.close();
+		}
+	}
+
+}
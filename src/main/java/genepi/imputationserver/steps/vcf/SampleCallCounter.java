@@ -0,0 +1,73 @@
+package genepi.imputationserver.steps.vcf;
+
+/**
+ * Counts called genotypes per sample. Counters are stored bit-sliced: bit i
+ * of planes[j][w] is bit j of the counter of sample w * 64 + i. Adding a
+ * called mask is a ripple-carry addition on whole words, so 64 samples are
+ * updated at once. Counters are expanded to ints only when they are read or
+ * before the planes would overflow.
+ */
+public class SampleCallCounter {
+
+	private static final int PLANES = 16;
+
+	private static final int MAX_ADDS = (1 << PLANES) - 1;
+
+	private int samples;
+
+	private long[][] planes;
+
+	private int[] counts;
+
+	private int adds = 0;
+
+	public SampleCallCounter(int samples) {
+		this.samples = samples;
+		int words = MinimalVariantContext.getWords(samples);
+		planes = new long[PLANES][words];
+		counts = new int[samples];
+	}
+
+	public void add(long[] mask) {
+		if (adds == MAX_ADDS) {
+			flush();
+		}
+		for (int w = 0; w < planes[0].length; w++) {
+			long carry = mask[w];
+			int j = 0;
+			while (carry != 0) {
+				long plane = planes[j][w];
+				planes[j][w] = plane ^ carry;
+				carry &= plane;
+				j++;
+			}
+		}
+		adds++;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public int[] getCounts() {
+		flush();
+		return counts;
+	}
+
+	// expand bit-planes to per sample counts and reset them
+	private void flush() {
+		for (int j = 0; j < PLANES; j++) {
+			long[] plane = planes[j];
+			for (int w = 0; w < plane.length; w++) {
+				long bits = plane[w];
+				while (bits != 0) {
+					counts[w * 64 + Long.numberOfTrailingZeros(bits)] += 1 << j;
+					bits &= bits - 1;
+				}
+				plane[w] = 0;
+			}
+		}
+		adds = 0;
+	}
+
+}
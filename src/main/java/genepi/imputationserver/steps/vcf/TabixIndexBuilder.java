@@ -0,0 +1,339 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Builds a tabix index of a VCF file while its lines are written. Records
+ * are added with their position in a ParallelBGzipOutputStream, positions are
+ * converted into virtual offsets when the index is written after the stream
+ * is closed. Records must be sorted by position and grouped by chromosome.
+ */
+public class TabixIndexBuilder {
+
+	// tabix parameters of VCF files: format, chromosome, start and end column, meta char
+	private static final int FORMAT_VCF = 2;
+
+	private static final int COLUMN_CHROMOSOME = 1;
+
+	private static final int COLUMN_START = 2;
+
+	private static final int COLUMN_END = 0;
+
+	private static final int META_CHAR = '#';
+
+	private static final byte[] MAGIC = new byte[] { 'T', 'B', 'I', 1 };
+
+	// size of linear index windows
+	private static final int MIN_SHIFT = 14;
+
+	private static final byte[] END = "END=".getBytes(StandardCharsets.US_ASCII);
+
+	private List<Reference> references = new ArrayList<Reference>();
+
+	private Reference reference;
+
+	private int lastStart = -1;
+
+	// record that ends where the next record starts
+	private int pendingBin = -1;
+
+	private long pendingBegin;
+
+	// positions of the first tabs of a line
+	private int[] tabs = new int[8];
+
+	private static class Reference {
+
+		private String name;
+
+		private byte[] nameBytes;
+
+		private Map<Integer, List<long[]>> bins = new TreeMap<Integer, List<long[]>>();
+
+		private long[] intervals = new long[0];
+
+		private Reference(String name) {
+			this.name = name;
+			this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		}
+
+		private boolean hasName(byte[] buffer, int offset, int length) {
+			if (length != nameBytes.length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (buffer[offset + i] != nameBytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void addChunk(int bin, long begin, long end) {
+			List<long[]> chunks = bins.get(bin);
+			if (chunks == null) {
+				chunks = new ArrayList<long[]>();
+				bins.put(bin, chunks);
+			}
+			if (!chunks.isEmpty() && chunks.get(chunks.size() - 1)[1] == begin) {
+				chunks.get(chunks.size() - 1)[1] = end;
+			} else {
+				chunks.add(new long[] { begin, end });
+			}
+		}
+
+		private void addInterval(int start, int end, long begin) {
+			int first = start >> MIN_SHIFT;
+			int last = (end - 1) >> MIN_SHIFT;
+			if (last >= intervals.length) {
+				int oldLength = intervals.length;
+				intervals = Arrays.copyOf(intervals, Math.max(last + 1, oldLength * 2));
+				Arrays.fill(intervals, oldLength, intervals.length, -1);
+			}
+			for (int i = first; i <= last; i++) {
+				if (intervals[i] == -1) {
+					intervals[i] = begin;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Adds a line that starts at the given position of the stream. Header
+	 * lines are skipped.
+	 */
+	public void add(byte[] buffer, int offset, int length, long position) throws IOException {
+
+		if (length == 0 || buffer[offset] == META_CHAR) {
+			return;
+		}
+
+		int end = offset + length;
+		int count = 0;
+		for (int i = offset; i < end && count < tabs.length; i++) {
+			if (buffer[i] == '\t') {
+				tabs[count++] = i;
+			}
+		}
+		if (count < 4) {
+			throw new IOException("Line '" + new String(buffer, offset, length, StandardCharsets.UTF_8)
+					+ "' has not enough columns for the tabix index.");
+		}
+
+		// 0-based start and exclusive end of the record
+		int start = parseInt(buffer, tabs[0] + 1, tabs[1]) - 1;
+		int stop = start + tabs[3] - tabs[2] - 1;
+		if (count >= 7) {
+			// END of the INFO column is 1-based and inclusive
+			int infoEnd = findEnd(buffer, tabs[6] + 1, count == 8 ? tabs[7] : end);
+			if (infoEnd > start) {
+				stop = infoEnd;
+			}
+		}
+		if (stop <= start) {
+			stop = start + 1;
+		}
+
+		if (reference == null || !reference.hasName(buffer, offset, tabs[0] - offset)) {
+			String name = new String(buffer, offset, tabs[0] - offset, StandardCharsets.UTF_8);
+			for (Reference other : references) {
+				if (other.name.equals(name)) {
+					throw new IOException("Chromosome " + name + " is not contiguous, the file can not be indexed.");
+				}
+			}
+			closeRecord(position);
+			reference = new Reference(name);
+			references.add(reference);
+			lastStart = -1;
+		} else {
+			closeRecord(position);
+		}
+
+		if (start < lastStart) {
+			throw new IOException("Position " + (start + 1) + " on chromosome " + reference.name
+					+ " is not sorted, the file can not be indexed.");
+		}
+		lastStart = start;
+
+		pendingBin = reg2bin(start, stop);
+		pendingBegin = position;
+		reference.addInterval(start, stop, position);
+
+	}
+
+	private void closeRecord(long position) {
+		if (pendingBin != -1) {
+			reference.addChunk(pendingBin, pendingBegin, position);
+			pendingBin = -1;
+		}
+	}
+
+	// END value of an INFO column or -1
+	private static int findEnd(byte[] buffer, int from, int to) {
+		for (int i = from; i + END.length < to; i++) {
+			if ((i == from || buffer[i - 1] == ';') && buffer[i] == 'E' && buffer[i + 1] == 'N' && buffer[i + 2] == 'D'
+					&& buffer[i + 3] == '=') {
+				int valueEnd = i + END.length;
+				while (valueEnd < to && buffer[valueEnd] != ';') {
+					valueEnd++;
+				}
+				try {
+					return parseInt(buffer, i + END.length, valueEnd);
+				} catch (IOException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int parseInt(byte[] buffer, int from, int to) throws IOException {
+		if (from >= to) {
+			throw new IOException("Empty position in tabix column.");
+		}
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException(
+						"Invalid position '" + new String(buffer, from, to - from, StandardCharsets.UTF_8) + "'.");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the bin of a 0-based region with exclusive end as defined by the
+	 * SAM specification.
+	 */
+	static int reg2bin(int start, int end) {
+		end--;
+		if (start >> 14 == end >> 14) {
+			return ((1 << 15) - 1) / 7 + (start >> 14);
+		}
+		if (start >> 17 == end >> 17) {
+			return ((1 << 12) - 1) / 7 + (start >> 17);
+		}
+		if (start >> 20 == end >> 20) {
+			return ((1 << 9) - 1) / 7 + (start >> 20);
+		}
+		if (start >> 23 == end >> 23) {
+			return ((1 << 6) - 1) / 7 + (start >> 23);
+		}
+		if (start >> 26 == end >> 26) {
+			return ((1 << 3) - 1) / 7 + (start >> 26);
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes the index. end is the position after the last line, data the
+	 * closed stream the positions belong to.
+	 */
+	public void write(String filename, long end, ParallelBGzipOutputStream data) throws IOException {
+
+		closeRecord(end);
+
+		ParallelBGzipOutputStream out = new ParallelBGzipOutputStream(filename,
+				BlockCompressedOutputStream.getDefaultCompressionLevel());
+		try {
+
+			out.write(MAGIC);
+			writeInt(out, references.size());
+			writeInt(out, FORMAT_VCF);
+			writeInt(out, COLUMN_CHROMOSOME);
+			writeInt(out, COLUMN_START);
+			writeInt(out, COLUMN_END);
+			writeInt(out, META_CHAR);
+			writeInt(out, 0);
+
+			int namesLength = 0;
+			for (Reference reference : references) {
+				namesLength += reference.nameBytes.length + 1;
+			}
+			writeInt(out, namesLength);
+			for (Reference reference : references) {
+				out.write(reference.nameBytes);
+				out.write(0);
+			}
+
+			for (Reference reference : references) {
+
+				writeInt(out, reference.bins.size());
+				for (Map.Entry<Integer, List<long[]>> bin : reference.bins.entrySet()) {
+					List<long[]> chunks = mergeChunks(bin.getValue());
+					writeInt(out, bin.getKey());
+					writeInt(out, chunks.size());
+					for (long[] chunk : chunks) {
+						writeLong(out, data.getVirtualOffset(chunk[0]));
+						writeLong(out, data.getVirtualOffset(chunk[1]));
+					}
+				}
+
+				// empty windows point to the previous record
+				long[] intervals = reference.intervals;
+				int length = intervals.length;
+				while (length > 0 && intervals[length - 1] == -1) {
+					length--;
+				}
+				writeInt(out, length);
+				long last = -1;
+				for (int i = 0; i < length; i++) {
+					if (intervals[i] != -1) {
+						last = intervals[i];
+						break;
+					}
+				}
+				for (int i = 0; i < length; i++) {
+					if (intervals[i] != -1) {
+						last = intervals[i];
+					}
+					writeLong(out, data.getVirtualOffset(last));
+				}
+
+			}
+
+		} finally {
+			out.close();
+		}
+
+	}
+
+	// chunks that end in the block where the next one starts are read as one, as in tabix
+	private static List<long[]> mergeChunks(List<long[]> chunks) {
+		List<long[]> merged = new ArrayList<long[]>();
+		for (long[] chunk : chunks) {
+			long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && last[1] >>> 16 == chunk[0] >>> 16) {
+				last[1] = chunk[1];
+			} else {
+				merged.add(chunk);
+			}
+		}
+		return merged;
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value);
+		out.write(value >> 8);
+		out.write(value >> 16);
+		out.write(value >> 24);
+	}
+
+	private static void writeLong(OutputStream out, long value) throws IOException {
+		writeInt(out, (int) value);
+		writeInt(out, (int) (value >> 32));
+	}
+
+}
@@ -1,9 +1,72 @@
 package genepi.imputationserver.steps.vcf;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class VCFLineParser {
 
+	private static final int COLUMNS = 10;
+
+	private static final byte TAB = '\t';
+
+	// allele classes used by the GT-only fast path
+	private static final int ALLELE_REF = 0;
+
+	private static final int ALLELE_VAR = 1;
+
+	private static final int ALLELE_MISSING = 2;
+
+	private static final int ALLELE_OTHER = 3;
+
+	private static final int ALLELE_DELIMITER = 4;
+
+	private static final int HOM_REF = 1;
+
+	private static final int HOM_VAR = 2;
+
+	private static final int HET = 4;
+
+	private static final int NO_CALL = 8;
+
+	private static final int[] ALLELES = new int[256];
+
+	// genotype flags for each combination of two allele classes
+	private static final int[] GENOTYPES = new int[16];
+
+	static {
+
+		for (int c = 0; c < ALLELES.length; c++) {
+			ALLELES[c] = ALLELE_OTHER;
+		}
+		ALLELES['0'] = ALLELE_REF;
+		ALLELES['1'] = ALLELE_VAR;
+		ALLELES['.'] = ALLELE_MISSING;
+		ALLELES[':'] = ALLELE_DELIMITER;
+		ALLELES['\t'] = ALLELE_DELIMITER;
+
+		// same rules as in parseAnyGenotypes
+		for (int a = 0; a < 4; a++) {
+			for (int b = 0; b < 4; b++) {
+				int countR = (a == ALLELE_REF ? 1 : 0) + (b == ALLELE_REF ? 1 : 0);
+				int countV = (a == ALLELE_VAR ? 1 : 0) + (b == ALLELE_VAR ? 1 : 0);
+				int countNo = (a == ALLELE_MISSING ? 1 : 0) + (b == ALLELE_MISSING ? 1 : 0);
+				int genotype = 0;
+				if (countR == 2 || (countR == 1 && countV == 0)) {
+					genotype |= HOM_REF;
+				} else if (countV == 2 || (countV == 1 && countR == 0)) {
+					genotype |= HOM_VAR;
+				} else if (countV == 1 && countR == 1) {
+					genotype |= HET;
+				}
+				if (countNo == 2 || (countNo == 1 && countV == 0 && countR == 0)) {
+					genotype |= NO_CALL;
+				}
+				GENOTYPES[a * 4 + b] = genotype;
+			}
+		}
+
+	}
+
 	private int samplesInLineCount = 0;
 
 	private int noCallCount = 0;
@@ -25,34 +88,129 @@ public class VCFLineParser {
 	private int tile = 0;
 
 	private int tileGT = 0;
-	
-	private int j = 0;
-	
-	private int k = 0;
+
+	private boolean gtOnly = false;
+
+	// true if a sample column contains a '/'
+	private boolean unphased = false;
+
+	// start offsets of the first 10 columns and end of line
+	private int[] columns = new int[COLUMNS + 1];
+
+	private int samples;
+
+	// sample columns of the last parsed record
+	private byte[] buffer;
+
+	private int samplesStart;
+
+	private int samplesEnd;
 
 	private MinimalVariantContext variantContext;
 
 	public VCFLineParser(int samples) {
+		this.samples = samples;
 		variantContext = new MinimalVariantContext(samples);
 	}
 
 	public MinimalVariantContext parseLine(String line) throws IOException {
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		parseLine(bytes, 0, bytes.length);
+		variantContext.setRawLine(line);
+		return variantContext;
+	}
 
-		String tiles[] = line.split("\t", 10);
+	/**
+	 * Parses a record in place. The buffer is referenced by the returned
+	 * variant context and must not be modified until the next record is
+	 * parsed.
+	 */
+	public MinimalVariantContext parseLine(byte[] buffer, int offset, int length) throws IOException {
+
+		int end = offset + length;
+
+		// find column offsets, everything after column 9 are samples
+		int column = 0;
+		columns[column++] = offset;
+		for (int pos = offset; pos < end && column < COLUMNS; pos++) {
+			if (buffer[pos] == TAB) {
+				columns[column++] = pos + 1;
+			}
+		}
+		columns[COLUMNS] = end + 1;
 
-		if (tiles.length < 10) {
+		if (column < COLUMNS) {
 			throw new IOException("The provided VCF file is not correct tab-delimited");
 		}
 
-		String chromosome = tiles[0];
-		int position = Integer.parseInt(tiles[1]);
-		String id = tiles[2];
-		String ref = tiles[3];
-		String alt = tiles[4];
+		String chromosome = toString(buffer, 0);
+		int position = parseInt(buffer, 1);
+		String id = toString(buffer, 2);
+		String ref = toString(buffer, 3);
+		String alt = toString(buffer, 4);
 
-		i = 0;
-		countR = 0;
-		countV = 0;
+		tileGT = findGT(buffer, columns[8], columns[9] - 1);
+
+		if (tileGT == -1) {
+			throw new IOException("No GT field found in FORMAT column.");
+		}
+
+		gtOnly = tileGT == 0 && columns[9] - 1 - columns[8] == 2;
+
+		// update variant context
+		variantContext.setId(id);
+		variantContext.setContig(chromosome);
+		variantContext.setStart(position);
+		variantContext.setReferenceAllele(ref);
+		variantContext.setAlternateAllele(alt);
+		variantContext.setRawLine(buffer, offset, length);
+
+		if (!equals(buffer, 6, "PASS") && !equals(buffer, 6, ".")) {
+			variantContext.setFilters(toString(buffer, 6));
+		} else {
+			variantContext.setFilters(null);
+		}
+
+		// the number of samples is known right away, genotypes are scanned on first access
+		variantContext.setNSamples(countSamples(buffer, columns[9], end));
+		this.buffer = buffer;
+		this.samplesStart = columns[9];
+		this.samplesEnd = end;
+		variantContext.setGenotypeParser(this);
+
+		return variantContext;
+	}
+
+	/**
+	 * Scans the sample columns of the last parsed record and updates the
+	 * genotype counts and called flags of its variant context.
+	 */
+	void parseGenotypes() {
+
+		if (!gtOnly || !parseDiploidGenotypes()) {
+			parseAnyGenotypes();
+		}
+
+		variantContext.setHetCount(hetCount);
+		variantContext.setHomRefCount(homRefCount);
+		variantContext.setHomVarCount(homVarCount);
+		variantContext.setNoCallCount(noCallCount);
+		variantContext.setNSamples(samplesInLineCount);
+		variantContext.setUnphased(unphased);
+
+	}
+
+	/**
+	 * Fast path for records where FORMAT is exactly GT and every genotype has
+	 * the fixed form "a|b" or "a/b": samples are read with a stride of four
+	 * bytes and classified by a table lookup. Returns false when the record
+	 * does not follow this pattern; it is then parsed by parseAnyGenotypes.
+	 */
+	private boolean parseDiploidGenotypes() {
+
+		int end = samplesEnd;
+		int pos = samplesStart;
+		long called = 0;
 
 		homRefCount = 0;
 		homVarCount = 0;
@@ -60,42 +218,102 @@ public class VCFLineParser {
 		noCallCount = 0;
 
 		samplesInLineCount = 0;
+		unphased = false;
 
-		tileGT = 0;
-		k = tiles[8].indexOf("GT");
-		
-		if (k == -1){
-			throw new IOException("No GT field found in FORMAT column.");
-		}
-		
-		j = 0;
-		while (j < k){
-			if (tiles[8].charAt(j) == ':'){
-				tileGT++;
+		while (pos < end) {
+
+			if (pos + 3 > end || samplesInLineCount >= samples) {
+				return false;
 			}
-			j++;
+			if (pos + 3 < end && buffer[pos + 3] != TAB) {
+				return false;
+			}
+
+			int alleleA = ALLELES[buffer[pos] & 0xFF];
+			int separator = ALLELES[buffer[pos + 1] & 0xFF];
+			int alleleB = ALLELES[buffer[pos + 2] & 0xFF];
+
+			if (alleleA == ALLELE_DELIMITER || alleleB == ALLELE_DELIMITER || separator != ALLELE_OTHER) {
+				return false;
+			}
+			if (buffer[pos] == '/' || buffer[pos + 1] == '/' || buffer[pos + 2] == '/') {
+				unphased = true;
+			}
+
+			int genotype = GENOTYPES[alleleA * 4 + alleleB];
+			if ((genotype & HOM_REF) != 0) {
+				homRefCount++;
+			} else if ((genotype & HOM_VAR) != 0) {
+				homVarCount++;
+			} else if ((genotype & HET) != 0) {
+				hetCount++;
+			}
+
+			if ((genotype & NO_CALL) != 0) {
+				noCallCount++;
+			} else {
+				called |= 1L << samplesInLineCount;
+			}
+
+			samplesInLineCount++;
+			pos += 4;
+
+			// store called flags word by word
+			if ((samplesInLineCount & 63) == 0) {
+				variantContext.setCalledWord((samplesInLineCount - 1) >>> 6, called);
+				called = 0;
+			}
+		}
+
+		if ((samplesInLineCount & 63) != 0) {
+			variantContext.setCalledWord(samplesInLineCount >>> 6, called);
 		}
-				
-		while (i < tiles[9].length()) {
+
+		return samplesInLineCount == samples;
+
+	}
+
+	// generic parser for all FORMAT columns and ploidies
+	private void parseAnyGenotypes() {
+
+		int end = samplesEnd;
+
+		i = samplesStart;
+
+		countR = 0;
+		countV = 0;
+
+		homRefCount = 0;
+		homVarCount = 0;
+		hetCount = 0;
+		noCallCount = 0;
+
+		samplesInLineCount = 0;
+		unphased = false;
+
+		while (i < end) {
 			countR = 0;
 			countV = 0;
 			countNo = 0;
 			// count genotypes for one sample
 			tile = 0;
-			while (i < tiles[9].length() && tiles[9].charAt(i) != '\t') {
+			while (i < end && buffer[i] != TAB) {
 
-				//count format values 
-				if (tiles[9].charAt(i) == ':') {
+				//count format values
+				if (buffer[i] == ':') {
 					tile++;
 				} else {
+					if (buffer[i] == '/') {
+						unphased = true;
+					}
 					//find right position
 					if (tile == tileGT) {
 
-						if (tiles[9].charAt(i) == '1') {
+						if (buffer[i] == '1') {
 							countV++;
-						} else if (tiles[9].charAt(i) == '0') {
+						} else if (buffer[i] == '0') {
 							countR++;
-						} else if (tiles[9].charAt(i) == '.') {
+						} else if (buffer[i] == '.') {
 							countNo++;
 						}
 					}
@@ -116,34 +334,81 @@ public class VCFLineParser {
 
 			if (countNo == 2 || (countNo == 1 && countV == 0 && countR == 0)) {
 				noCallCount++;
-				variantContext.setCalled(samplesInLineCount, false);
-			} else {
+				if (samplesInLineCount < samples) {
+					variantContext.setCalled(samplesInLineCount, false);
+				}
+			} else if (samplesInLineCount < samples) {
 				variantContext.setCalled(samplesInLineCount, true);
 			}
 
 			samplesInLineCount++;
 		}
 
-		// update variant context
-		variantContext.setId(id);
-		variantContext.setContig(chromosome);
-		variantContext.setStart(position);
-		variantContext.setReferenceAllele(ref);
-		variantContext.setAlternateAllele(alt);
-		variantContext.setHetCount(hetCount);
-		variantContext.setHomRefCount(homRefCount);
-		variantContext.setHomVarCount(homVarCount);
-		variantContext.setNoCallCount(noCallCount);
-		variantContext.setNSamples(samplesInLineCount);
-		variantContext.setRawLine(line);
+	}
 
-		if (!tiles[6].equals("PASS") && !tiles[6].equals(".")) {
-			variantContext.setFilters(tiles[6]);
-		} else {
-			variantContext.setFilters(null);
+	// number of sample columns, counted as in the split sample column of the old parser
+	private int countSamples(byte[] buffer, int start, int end) {
+		if (start >= end) {
+			return 0;
+		}
+		int count = 1;
+		for (int pos = start; pos < end - 1; pos++) {
+			if (buffer[pos] == TAB) {
+				count++;
+			}
 		}
+		return count;
+	}
 
-		return variantContext;
+	// returns the index of the GT sub-field in the FORMAT column or -1
+	private int findGT(byte[] buffer, int start, int end) {
+		int tileGT = 0;
+		for (int pos = start; pos < end - 1; pos++) {
+			if (buffer[pos] == 'G' && buffer[pos + 1] == 'T') {
+				return tileGT;
+			}
+			if (buffer[pos] == ':') {
+				tileGT++;
+			}
+		}
+		return -1;
+	}
+
+	private String toString(byte[] buffer, int column) {
+		int start = columns[column];
+		return new String(buffer, start, columns[column + 1] - 1 - start, StandardCharsets.UTF_8);
+	}
+
+	private boolean equals(byte[] buffer, int column, String value) {
+		int start = columns[column];
+		int length = columns[column + 1] - 1 - start;
+		if (length != value.length()) {
+			return false;
+		}
+		for (int pos = 0; pos < length; pos++) {
+			if (buffer[start + pos] != value.charAt(pos)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int parseInt(byte[] buffer, int column) {
+		int start = columns[column];
+		int end = columns[column + 1] - 1;
+		int value = 0;
+		for (int pos = start; pos < end; pos++) {
+			int digit = buffer[pos] - '0';
+			if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+				// not a plain positive number: use default parser and its error message
+				return Integer.parseInt(toString(buffer, column));
+			}
+			value = value * 10 + digit;
+		}
+		if (start == end) {
+			return Integer.parseInt("");
+		}
+		return value;
 	}
 
 }
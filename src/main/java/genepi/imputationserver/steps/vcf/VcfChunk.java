@@ -19,6 +19,18 @@ public class VcfChunk {
 	private int snps = 0;
 
 	private int inReference = 0;;
+
+	// compression of the chunk file: store, fast, default or best
+	private String compression = BGzipLineWriter.COMPRESSION_DEFAULT;
+
+	// chunk with phasing window
+	private int extendedStart;
+
+	private int extendedEnd;
+
+	// virtual offsets of the ranges of records in a shared chunk file (start and end of
+	// each range), null for a chunk in its own file
+	private long[] offsets = null;
 	
 	public VcfChunk() {
 
@@ -37,6 +49,16 @@ public class VcfChunk {
 			snps = Integer.parseInt(tiles[5]);
 			inReference = Integer.parseInt(tiles[6]);
 		}
+
+		if (tiles.length > 7) {
+			compression = tiles[7];
+		}
+
+		if (tiles.length > 10) {
+			extendedStart = Integer.parseInt(tiles[8]);
+			extendedEnd = Integer.parseInt(tiles[9]);
+			offsets = parseOffsets(tiles[10]);
+		}
 	}
 
 	public String getChromosome() {
@@ -100,10 +122,82 @@ public class VcfChunk {
 	}
 
 
+	public String getCompression() {
+		return compression;
+	}
+
+	public void setCompression(String compression) {
+		this.compression = compression;
+	}
+
+	public int getExtendedStart() {
+		return extendedStart;
+	}
+
+	public void setExtendedStart(int extendedStart) {
+		this.extendedStart = extendedStart;
+	}
+
+	public int getExtendedEnd() {
+		return extendedEnd;
+	}
+
+	public void setExtendedEnd(int extendedEnd) {
+		this.extendedEnd = extendedEnd;
+	}
+
+	/**
+	 * Returns the BGZF virtual offsets of the records of the chunk in a shared
+	 * chunk file or null. Offsets are pairs of the first record of a range and
+	 * the position after its last record. Ranges are separated by records of
+	 * neighbouring chunks, e.g. sites that are not in the reference panel.
+	 */
+	public long[] getOffsets() {
+		return offsets;
+	}
+
+	public void setOffsets(long[] offsets) {
+		this.offsets = offsets;
+	}
+
+	// ranges are written as start-end,start-end or '.' if the chunk has no records
+	private static long[] parseOffsets(String value) {
+		if (value.equals(".")) {
+			return new long[0];
+		}
+		String[] ranges = value.split(",");
+		long[] offsets = new long[ranges.length * 2];
+		for (int i = 0; i < ranges.length; i++) {
+			String[] range = ranges[i].split("-");
+			offsets[i * 2] = Long.parseLong(range[0]);
+			offsets[i * 2 + 1] = Long.parseLong(range[1]);
+		}
+		return offsets;
+	}
+
+	private static String formatOffsets(long[] offsets) {
+		if (offsets.length == 0) {
+			return ".";
+		}
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < offsets.length; i += 2) {
+			if (i > 0) {
+				value.append(',');
+			}
+			value.append(offsets[i]).append('-').append(offsets[i + 1]);
+		}
+		return value.toString();
+	}
+
 	public String serialize() {
-		return chromosome + "\t" + start + "\t" + end + "\t"
+		String line = chromosome + "\t" + start + "\t" + end + "\t"
 				+ (phased ? "VCF-PHASED" : "VCF-UNPHASED") + "\t" + vcfFilename
-				+ "\t" + snps + "\t" + inReference;
+				+ "\t" + snps + "\t" + inReference + "\t" + compression;
+		// chunks in their own file keep the columns read by existing consumers
+		if (offsets != null) {
+			line += "\t" + extendedStart + "\t" + extendedEnd + "\t" + formatOffsets(offsets);
+		}
+		return line;
 	}
 
 	public String getId() {
@@ -117,8 +211,8 @@ public class VcfChunk {
 	public int validSnpsChunk = 0;
 	public int foundInLegendChunk = 0;
 	public int notFoundInLegendChunk = 0;
-	public int[] snpsPerSampleCount = null;
-	public BGzipLineWriter vcfChunkWriter;
+	public SampleCallCounter snpsPerSampleCount = null;
+	public ILineWriter vcfChunkWriter;
 	public 	int lastPos = 0;
 	public boolean empty=true;
 
@@ -0,0 +1,166 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects the properties of a VcfFile (chromosomes, chunks, phasing, number
+ * of samples and snps) record by record and runs the same checks as
+ * VcfFileUtil.load. This allows validation to be done while the file is
+ * streamed for other purposes.
+ */
+public class VcfFileBuilder {
+
+	private Set<Integer> chunks = new HashSet<Integer>();
+
+	private Set<String> chromosomes = new HashSet<String>();
+
+	private Set<String> rawChromosomes = new HashSet<String>();
+
+	private String rawChromosome;
+
+	private int noSnps = 0;
+
+	private int noSamples = 0;
+
+	private boolean phased = true;
+
+	private int chunkSize;
+
+	public VcfFileBuilder(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public void addHeader(String line) throws IOException {
+
+		if (line.startsWith("#CHROM")) {
+
+			String[] tiles = line.split("\t");
+
+			// check sample names, stop when not unique
+			HashSet<String> samples = new HashSet<>();
+
+			for (int i = 0; i < tiles.length; i++) {
+
+				String sample = tiles[i];
+
+				if (samples.contains(sample)) {
+					throw new IOException("Two individuals or more have the following ID: " + sample);
+				}
+				samples.add(sample);
+			}
+
+			noSamples = Math.max(tiles.length - 9, 0);
+		}
+
+	}
+
+	/**
+	 * @param unphased true if the sample columns of the record contain a '/'.
+	 *                 Only evaluated while isPhased() is true.
+	 */
+	public void addVariant(String chromosome, int position, String id, String ref, String alt, boolean unphased)
+			throws IOException {
+
+		if (rawChromosome == null) {
+			rawChromosome = chromosome;
+		}
+		rawChromosomes.add(chromosome);
+		chromosome = chromosome.replaceAll("chr", "");
+
+		if (phased && unphased) {
+			phased = false;
+		}
+
+		chromosomes.add(chromosome);
+		if (chromosomes.size() > 1) {
+			throw new IOException(
+					"The provided VCF file contains more than one chromosome. Please split your input VCF file by chromosome");
+		}
+
+		if (ref.equals(alt)) {
+			throw new IOException("The provided VCF file is malformed at variation " + id + ": reference allele ("
+					+ ref + ") and alternate allele  (" + alt + ") are the same.");
+		}
+
+		int chunk = position / chunkSize;
+		if (position % chunkSize == 0) {
+			chunk = chunk - 1;
+		}
+		chunks.add(chunk);
+		noSnps++;
+
+	}
+
+	public void addVariant(MinimalVariantContext variant) throws IOException {
+		addVariant(variant.getContig(), variant.getStart(), variant.getId(), variant.getReferenceAllele(),
+				variant.getAlternateAllele(), phased && variant.hasUnphasedGenotypes());
+	}
+
+	/**
+	 * Adds the variants collected by a builder for a later part of the same
+	 * file.
+	 */
+	public void merge(VcfFileBuilder other) throws IOException {
+		if (other.isEmpty()) {
+			return;
+		}
+		if (rawChromosome == null) {
+			rawChromosome = other.rawChromosome;
+		}
+		rawChromosomes.addAll(other.rawChromosomes);
+		chromosomes.addAll(other.chromosomes);
+		if (chromosomes.size() > 1) {
+			throw new IOException(
+					"The provided VCF file contains more than one chromosome. Please split your input VCF file by chromosome");
+		}
+		chunks.addAll(other.chunks);
+		noSnps += other.noSnps;
+		phased = phased && other.phased;
+	}
+
+	public boolean isPhased() {
+		return phased;
+	}
+
+	public boolean isEmpty() {
+		return noSnps == 0;
+	}
+
+	/**
+	 * Returns the raw chromosome of the first record.
+	 */
+	public String getRawChromosome() {
+		return rawChromosome;
+	}
+
+	public void setNoSamples(int noSamples) {
+		this.noSamples = noSamples;
+	}
+
+	public VcfFile build(String vcfFilename) {
+
+		VcfFile pair = new VcfFile();
+		pair.setVcfFilename(vcfFilename);
+		pair.setIndexFilename(vcfFilename + ".tbi");
+		pair.setNoSnps(noSnps);
+		pair.setNoSamples(noSamples);
+		pair.setChunks(chunks);
+		pair.setChromosomes(chromosomes);
+
+		boolean hasChrPrefix = false;
+		for (String chromosome : rawChromosomes) {
+			if (chromosome.startsWith("chr")) {
+				hasChrPrefix = true;
+			}
+		}
+		pair.setRawChromosomes(rawChromosomes);
+		pair.setChrPrefix(hasChrPrefix);
+		pair.setPhased(phased);
+		pair.setChunkSize(chunkSize);
+		return pair;
+
+	}
+
+}
@@ -8,7 +8,6 @@ import java.util.Set;
 import genepi.command.Command;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
-import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.tribble.index.IndexFactory;
 import htsjdk.tribble.index.tabix.TabixFormat;
@@ -19,24 +18,14 @@ public class VcfFileUtil {
 	
 	public static VcfFile load(String vcfFilename, int chunksize, boolean createIndex) throws IOException {
 
-		Set<Integer> chunks = new HashSet<Integer>();
-		Set<String> chromosomes = new HashSet<String>();
-		Set<String> rawChromosomes = new HashSet<String>();
-		int noSnps = 0;
-		int noSamples = 0;
+		VcfFileBuilder builder = new VcfFileBuilder(chunksize);
 
 		try {
 
-			VCFFileReader reader = new VCFFileReader(new File(vcfFilename), false);
-
-			noSamples = reader.getFileHeader().getGenotypeSamples().size();
-
-			reader.close();
+			int noSamples = VcfHeader.read(vcfFilename).getSamples().size();
 
 			LineReader lineReader = new LineReader(vcfFilename);
 
-			boolean phased = true;
-			boolean firstLine = true;
 			while (lineReader.next()) {
 
 				String line = lineReader.get();
@@ -49,61 +38,15 @@ public class VcfFileUtil {
 						throw new IOException("The provided VCF file is not tab-delimited");
 					}
 
-					String chromosome = tiles[0];
-					rawChromosomes.add(chromosome);
-					chromosome = chromosome.replaceAll("chr", "");
 					int position = Integer.parseInt(tiles[1]);
 
-					if (phased) {
-						boolean containsSymbol = tiles[9].contains("/");
-
-						if (containsSymbol) {
-							phased = false;
-						}
-
-					}
-
-					chromosomes.add(chromosome);
-					if (chromosomes.size() > 1) {
-						throw new IOException(
-								"The provided VCF file contains more than one chromosome. Please split your input VCF file by chromosome");
-					}
-
-					String ref = tiles[3];
-					String alt = tiles[4];
+					boolean unphased = builder.isPhased() && tiles[9].contains("/");
 
-					if (ref.equals(alt)) {
-						throw new IOException("The provided VCF file is malformed at variation " + tiles[2]
-								+ ": reference allele (" + ref + ") and alternate allele  (" + alt + ") are the same.");
-					}
-
-					int chunk = position / chunksize;
-					if (position % chunksize == 0) {
-						chunk = chunk - 1;
-					}
-					chunks.add(chunk);
-					noSnps++;
+					builder.addVariant(tiles[0], position, tiles[2], tiles[3], tiles[4], unphased);
 
 				} else {
 
-					if (line.startsWith("#CHROM")) {
-
-						String[] tiles = line.split("\t");
-
-						// check sample names, stop when not unique
-						HashSet<String> samples = new HashSet<>();
-
-						for (int i = 0; i < tiles.length; i++) {
-
-							String sample = tiles[i];
-
-							if (samples.contains(sample)) {
-								reader.close();
-								throw new IOException("Two individuals or more have the following ID: " + sample);
-							}
-							samples.add(sample);
-						}
-					}
+					builder.addHeader(line);
 
 				}
 
@@ -111,36 +54,12 @@ public class VcfFileUtil {
 			lineReader.close();
 
 			// create index
-			if (createIndex && !new File(vcfFilename + ".tbi").exists()) {
-
-				try {
-					createIndex(vcfFilename);
-				} catch (Exception e) {
-					throw new IOException(
-							"The provided VCF file is malformed. Error during index creation: " + e.getMessage());
-				}
-
+			if (createIndex) {
+				createIndexIfMissing(vcfFilename);
 			}
 
-			VcfFile pair = new VcfFile();
-			pair.setVcfFilename(vcfFilename);
-			pair.setIndexFilename(vcfFilename + ".tbi");
-			pair.setNoSnps(noSnps);
-			pair.setNoSamples(noSamples);
-			pair.setChunks(chunks);
-			pair.setChromosomes(chromosomes);
-			
-			boolean hasChrPrefix = false;
-			for (String chromosome: rawChromosomes){
-				if (chromosome.startsWith("chr")){
-					hasChrPrefix = true;
-				}
-			}
-			pair.setRawChromosomes(rawChromosomes);
-			pair.setChrPrefix(hasChrPrefix);
-			pair.setPhased(phased);
-			pair.setChunkSize(chunksize);
-			return pair;
+			builder.setNoSamples(noSamples);
+			return builder.build(vcfFilename);
 
 		} catch (Exception e) {
 			throw new IOException(e.getMessage());
@@ -148,6 +67,25 @@ public class VcfFileUtil {
 
 	}
 
+	/**
+	 * Creates a tabix index when no index exists. Errors are reported as
+	 * malformed VCF file.
+	 */
+	public static void createIndexIfMissing(String vcfFilename) throws IOException {
+
+		if (!new File(vcfFilename + ".tbi").exists()) {
+
+			try {
+				createIndex(vcfFilename);
+			} catch (Exception e) {
+				throw new IOException(
+						"The provided VCF file is malformed. Error during index creation: " + e.getMessage());
+			}
+
+		}
+
+	}
+
 	public static Set<String> validChromosomes = new HashSet<String>();
 
 	static {
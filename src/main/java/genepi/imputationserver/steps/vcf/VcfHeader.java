@@ -0,0 +1,144 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import genepi.io.FileUtil;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.vcf.VCFCodec;
+
+/**
+ * Raw meta lines and sample names of a VCF file. Only the lines up to #CHROM
+ * are read; they are validated by htsjdk as by VCFFileReader, but only the
+ * raw lines are kept. The last headers are cached by path, size and
+ * modification time, so a file is usually read once per command.
+ */
+public class VcfHeader {
+
+	private static final int MAX_CACHED_HEADERS = 16;
+
+	// least recently used headers are removed
+	private static final Map<String, VcfHeader> cache = Collections
+			.synchronizedMap(new LinkedHashMap<String, VcfHeader>(MAX_CACHED_HEADERS, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, VcfHeader> eldest) {
+					return size() > MAX_CACHED_HEADERS;
+				}
+			});
+
+	private List<String> metaLines;
+
+	private String headerLine;
+
+	private List<String> samples;
+
+	private VcfHeader(List<String> metaLines, String headerLine) {
+		this.metaLines = Collections.unmodifiableList(metaLines);
+		this.headerLine = headerLine;
+		String[] tiles = headerLine.split("\t");
+		if (tiles.length > 9) {
+			samples = Collections.unmodifiableList(Arrays.asList(tiles).subList(9, tiles.length));
+		} else {
+			samples = Collections.emptyList();
+		}
+	}
+
+	public static VcfHeader read(String filename) throws IOException {
+
+		File file = new File(filename);
+		String key = file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified();
+
+		VcfHeader header = cache.get(key);
+		if (header == null) {
+			header = parse(filename);
+			cache.put(key, header);
+		}
+		return header;
+
+	}
+
+	private static VcfHeader parse(String filename) throws IOException {
+
+		List<String> metaLines = new ArrayList<String>();
+		String headerLine = null;
+
+		ByteLineReader reader = null;
+		try {
+			reader = new ByteLineReader(FileUtil.decompressStream(new FileInputStream(filename)));
+			while (reader.next()) {
+				String line = new String(reader.getBuffer(), reader.getOffset(), reader.getLength(),
+						StandardCharsets.UTF_8);
+				if (line.startsWith("#CHROM")) {
+					headerLine = line;
+					break;
+				} else if (line.startsWith("#")) {
+					metaLines.add(line);
+				} else if (!line.trim().isEmpty()) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new IOException("Unable to parse header with error: " + e.getMessage());
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+
+		if (headerLine == null) {
+			throw new IOException("Unable to parse header with error: We never saw the required CHROM header line "
+					+ "(starting with one #) for the input VCF file");
+		}
+
+		validate(metaLines, headerLine);
+		return new VcfHeader(metaLines, headerLine);
+
+	}
+
+	// malformed headers are rejected with the same errors as by VCFFileReader
+	private static void validate(List<String> metaLines, String headerLine) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : metaLines) {
+			text.append(line).append('\n');
+		}
+		text.append(headerLine).append('\n');
+		try {
+			new VCFCodec().readActualHeader(
+					new LineIteratorImpl(new SynchronousLineReader(new StringReader(text.toString()))));
+		} catch (RuntimeException e) {
+			throw new IOException("Unable to parse header with error: " + e.getMessage());
+		}
+	}
+
+	public List<String> getMetaLines() {
+		return metaLines;
+	}
+
+	public String getHeaderLine() {
+		return headerLine;
+	}
+
+	/**
+	 * Returns all header lines in file order, the #CHROM line is the last one.
+	 */
+	public List<String> getLines() {
+		List<String> lines = new ArrayList<String>(metaLines);
+		lines.add(headerLine);
+		return lines;
+	}
+
+	public List<String> getSamples() {
+		return samples;
+	}
+
+}
@@ -25,6 +25,101 @@ public class GenomicTools {
 	private static final String C = "C";
 	private static final String A = "A";
 
+	// classes returned by classify, more than one can be set
+	public static final int MATCH = 1;
+	public static final int ALLELE_SWITCH = 2;
+	public static final int STRAND_FLIP = 4;
+	public static final int STRAND_FLIP_AND_ALLELE_SWITCH = 8;
+	public static final int COMPLICATED_GENOTYPES = 16;
+
+	private static final char[] BASES = new char[] { 'A', 'C', 'G', 'T' };
+
+	// 2-bit code of each base, -1 for all other characters
+	private static final byte[] CODES = new byte[256];
+
+	// classes indexed by study ref, study alt, reference ref and reference alt codes
+	private static final byte[] CLASSES = new byte[256];
+
+	static {
+
+		for (int c = 0; c < CODES.length; c++) {
+			CODES[c] = -1;
+		}
+		for (int i = 0; i < BASES.length; i++) {
+			CODES[BASES[i]] = (byte) i;
+		}
+
+		for (int index = 0; index < CLASSES.length; index++) {
+			int studyRef = index >> 6;
+			int studyAlt = (index >> 4) & 3;
+			int legendRef = (index >> 2) & 3;
+			int legendAlt = index & 3;
+
+			int classes = 0;
+			if (studyRef == legendRef && studyAlt == legendAlt) {
+				classes |= MATCH;
+			}
+			if (studyRef == legendAlt && studyAlt == legendRef) {
+				classes |= ALLELE_SWITCH;
+			}
+			// the complement of a code is 3 - code
+			if (studyAlt == 3 - studyRef && legendAlt == 3 - legendRef) {
+				// A/T or C/G in both files
+				if ((studyRef == 0 || studyRef == 3) == (legendRef == 0 || legendRef == 3)) {
+					classes |= COMPLICATED_GENOTYPES;
+				}
+			} else if (studyRef != studyAlt) {
+				if (legendRef == 3 - studyRef && legendAlt == 3 - studyAlt) {
+					classes |= STRAND_FLIP;
+				}
+				if (legendRef == 3 - studyAlt && legendAlt == 3 - studyRef) {
+					classes |= STRAND_FLIP_AND_ALLELE_SWITCH;
+				}
+			}
+			CLASSES[index] = (byte) classes;
+		}
+
+	}
+
+	/**
+	 * Returns the classes of a study snp compared to a reference entry in one
+	 * table lookup. The flags are the same as the results of match,
+	 * alleleSwitch, strandFlip, strandFlipAndAlleleSwitch and
+	 * complicatedGenotypes. alleleMismatch is true if MATCH is not set.
+	 */
+	public static int classify(MinimalVariantContext snp, SitesEntry refEntry) {
+		String studyRef = snp.getReferenceAllele();
+		String studyAlt = snp.getAlternateAllele();
+		if (studyRef.length() != 1 || studyAlt.length() != 1) {
+			// genotype strings of more than two characters never flip
+			return classifyAlleles(studyRef.charAt(0), studyAlt.charAt(0), refEntry.getRefAllele(),
+					refEntry.getAltAllele()) & (MATCH | ALLELE_SWITCH);
+		}
+		return classifyAlleles(studyRef.charAt(0), studyAlt.charAt(0), refEntry.getRefAllele(),
+				refEntry.getAltAllele());
+	}
+
+	public static int classifyAlleles(char studyRef, char studyAlt, char legendRef, char legendAlt) {
+		if ((studyRef | studyAlt | legendRef | legendAlt) < CODES.length) {
+			int a = CODES[studyRef];
+			int b = CODES[studyAlt];
+			int c = CODES[legendRef];
+			int d = CODES[legendAlt];
+			if ((a | b | c | d) >= 0) {
+				return CLASSES[a << 6 | b << 4 | c << 2 | d];
+			}
+		}
+		// other characters can only match or switch
+		int classes = 0;
+		if (studyRef == legendRef && studyAlt == legendAlt) {
+			classes |= MATCH;
+		}
+		if (studyRef == legendAlt && studyAlt == legendRef) {
+			classes |= ALLELE_SWITCH;
+		}
+		return classes;
+	}
+
 	public static boolean isValid(String allele) {
 		return allele.toUpperCase().equals(A) || allele.toUpperCase().equals(C) || allele.toUpperCase().equals(G)
 				|| allele.toUpperCase().equals(T);
@@ -171,6 +266,11 @@ public class GenomicTools {
 
 	public static ChiSquareObject chiSquare(MinimalVariantContext snp, SitesEntry refSnp, boolean strandSwap,
 											int size) {
+		return chiSquare(snp, refSnp.getRefFrequency(), refSnp.getAltFrequency(), strandSwap, size);
+	}
+
+	public static ChiSquareObject chiSquare(MinimalVariantContext snp, double refA, double refB, boolean strandSwap,
+											int size) {
 
 		// calculate allele frequency
 
@@ -178,9 +278,6 @@ public class GenomicTools {
 
 		int refN = size;
 
-		double refA = refSnp.getRefFrequency();
-		double refB = refSnp.getAltFrequency();
-
 		int majorAlleleCount;
 		int minorAlleleCount;
 
@@ -229,8 +326,7 @@ public class GenomicTools {
 	public static SnpStats calculateAlleleFreq(MinimalVariantContext snp, SitesEntry refSnp, int size)
 			throws IOException, InterruptedException {
 
-		boolean strandSwap = GenomicTools.strandFlipAndAlleleSwitch(snp, refSnp)
-				|| GenomicTools.alleleSwitch(snp, refSnp);
+		boolean strandSwap = (classify(snp, refSnp) & (ALLELE_SWITCH | STRAND_FLIP_AND_ALLELE_SWITCH)) != 0;
 
 		// calculate allele frequency
 		SnpStats output = new SnpStats();
@@ -1,11 +1,14 @@
 package genepi.imputationserver.util;
 
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import genepi.imputationserver.steps.fastqc.legend.BinarySitesFile;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
@@ -83,6 +86,21 @@ public class RefPanel {
 		this.sites = sites;
 	}
 
+	/**
+	 * Returns the sites file of a chromosome. A binary sites file next to the
+	 * text file is preferred, unless it was converted from an older version of
+	 * the text file.
+	 */
+	public static String getSites(String sites, String chromosome) {
+		String filename = StringUtils.resolveVariable(sites, "chr", chromosome);
+		String binaryFilename = filename + BinarySitesFile.EXTENSION;
+		if (new File(binaryFilename).exists()
+				&& (!new File(filename).exists() || BinarySitesFile.isCurrent(binaryFilename, filename))) {
+			return binaryFilename;
+		}
+		return filename;
+	}
+
 	public void setBuild(String build) {
 		this.build = build;
 	}
@@ -1,18 +1,32 @@
 package genepi.imputationserver.steps;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 
+import genepi.imputationserver.steps.vcf.VcfChunk;
 import genepi.imputationserver.util.AbstractTestcase;
 import genepi.imputationserver.util.OutputReader;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.readers.TabixReader;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 
@@ -281,6 +295,8 @@ public class QualityControlCommandTest extends AbstractTestcase {
 
 		int count = 0;
 		while (reader.next()) {
+			// offsets are only written for shared chunk files
+			assertEquals(8, reader.get().split("\t").length);
 			count++;
 		}
 
@@ -288,6 +304,131 @@ public class QualityControlCommandTest extends AbstractTestcase {
 
 	}
 
+	@Test
+	public void testSharedChunkFile() throws Exception {
+
+		String inputFolder = "test-data/data/simulated-chip-1chr-imputation";
+
+		// records of each chunk in its own file
+		QualityControlCommand command = buildCommand(inputFolder);
+		command.setReference("test-data/configs/hapmap-chr1/hapmap2.json");
+		assertEquals(0, (int) command.call());
+
+		Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+		Set<String> expectedRecords = new HashSet<String>();
+		LineReader reader = new LineReader(FileUtil.path(TEST_DATA_TMP, "1"));
+		while (reader.next()) {
+			VcfChunk chunk = new VcfChunk(reader.get());
+			List<String> records = readRecords(chunk.getVcfFilename());
+			expected.put(chunk.getId(), records);
+			expectedRecords.addAll(records);
+		}
+		reader.close();
+		assertEquals(13, expected.size());
+
+		command = buildCommand(inputFolder);
+		command.setReference("test-data/configs/hapmap-chr1/hapmap2.json");
+		command.setSharedChunkFile(true);
+		assertEquals(0, (int) command.call());
+
+		String chunkFile = FileUtil.path(TEST_DATA_TMP, "chunks_1.vcf.gz");
+		assertFalse(new File(chunkFile + ".records").exists());
+
+		// only records of passed chunks, each stored once
+		List<String> records = readRecords(chunkFile);
+		assertEquals(expectedRecords.size(), records.size());
+		assertEquals(expectedRecords, new HashSet<String>(records));
+
+		TabixReader tabixReader = new TabixReader(chunkFile);
+		int count = 0;
+		reader = new LineReader(FileUtil.path(TEST_DATA_TMP, "1"));
+		while (reader.next()) {
+			VcfChunk chunk = new VcfChunk(reader.get());
+			assertEquals(chunkFile, chunk.getVcfFilename());
+			List<String> expectedChunk = expected.get(chunk.getId());
+
+			// ranges contain exactly the records of the chunk file
+			List<String> actualChunk = new Vector<String>();
+			long[] offsets = chunk.getOffsets();
+			BlockCompressedInputStream in = new BlockCompressedInputStream(new File(chunkFile));
+			for (int i = 0; i < offsets.length; i += 2) {
+				in.seek(offsets[i]);
+				String line;
+				while (in.getFilePointer() < offsets[i + 1] && (line = in.readLine()) != null) {
+					actualChunk.add(line);
+				}
+			}
+			in.close();
+			assertEquals(expectedChunk, actualChunk);
+
+			// the index returns the records inside the chunk
+			List<String> expectedRegion = new Vector<String>();
+			for (String record : expectedChunk) {
+				int position = Integer.parseInt(record.split("\t", 3)[1]);
+				if (position >= chunk.getStart() && position <= chunk.getEnd()) {
+					expectedRegion.add(record);
+				}
+			}
+			String contig = expectedChunk.get(0).split("\t", 2)[0];
+			List<String> actualRegion = new Vector<String>();
+			TabixReader.Iterator iterator = tabixReader.query(contig + ":" + chunk.getStart() + "-" + chunk.getEnd());
+			String line;
+			while ((line = iterator.next()) != null) {
+				actualRegion.add(line);
+			}
+			assertEquals(expectedRegion, actualRegion);
+
+			count++;
+		}
+		reader.close();
+		tabixReader.close();
+
+		assertEquals(13, count);
+
+	}
+
+	// lines of a chunk file without header
+	private List<String> readRecords(String filename) throws Exception {
+		List<String> records = new Vector<String>();
+		LineReader reader = new LineReader(filename);
+		while (reader.next()) {
+			if (!reader.get().startsWith("#")) {
+				records.add(reader.get());
+			}
+		}
+		reader.close();
+		return records;
+	}
+
+	@Test
+	public void testParallelAndSplitRunsEqualSerialRun() throws Exception {
+
+		String inputFolder = "test-data/data/simulated-chip-3chr-imputation";
+
+		QualityControlCommand command = buildCommand(inputFolder);
+		command.setReference("test-data/configs/hapmap-3chr/hapmap2.json");
+		assertEquals(0, (int) command.call());
+		Map<String, String> expected = readOutputs();
+
+		// a task per file
+		command = buildCommand(inputFolder);
+		command.setReference("test-data/configs/hapmap-3chr/hapmap2.json");
+		command.setThreads(4);
+		assertEquals(0, (int) command.call());
+		assertFalse(new File(TEST_DATA_TMP, "parts").exists());
+		assertEquals(expected, readOutputs());
+
+		// a task per range of chunks
+		command = buildCommand(inputFolder);
+		command.setReference("test-data/configs/hapmap-3chr/hapmap2.json");
+		command.setThreads(4);
+		command.setSplitFiles(true);
+		assertEquals(0, (int) command.call());
+		assertFalse(new File(TEST_DATA_TMP, "parts").exists());
+		assertEquals(expected, readOutputs());
+
+	}
+
 	@Test
 	public void testCountSamplesInCreatedChunk() throws Exception {
 
@@ -616,6 +757,31 @@ public class QualityControlCommandTest extends AbstractTestcase {
 
 	}
 
+	// chunks, metafiles, statistics and report of a run, chunks are decompressed
+	private Map<String, String> readOutputs() throws Exception {
+		Map<String, String> outputs = new TreeMap<String, String>();
+		for (File file : new File(TEST_DATA_TMP).listFiles()) {
+			InputStream in = new FileInputStream(file);
+			if (file.getName().endsWith(".gz")) {
+				in = new GZIPInputStream(in);
+			}
+			outputs.put(file.getName(), readAll(in));
+		}
+		outputs.put(CLOUDGENE_LOG, readAll(new FileInputStream(CLOUDGENE_LOG)));
+		return outputs;
+	}
+
+	private String readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+
 	private QualityControlCommand buildCommand(String inputFolder) {
 
 		File tmp = new File(TEST_DATA_TMP);
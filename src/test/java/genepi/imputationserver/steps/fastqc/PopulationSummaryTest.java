@@ -0,0 +1,43 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class PopulationSummaryTest extends TestCase {
+
+	@Test
+	public void testBestPopulation() {
+		Map<String, Integer> samples = new LinkedHashMap<String, Integer>();
+		samples.put("eur", 100);
+		samples.put("afr", 200);
+		samples.put("eas", 50);
+
+		PopulationSummary summary = new PopulationSummary(samples);
+		assertEquals(1, summary.indexOf("AFR"));
+		assertEquals(-1, summary.indexOf("sas"));
+		assertEquals(-1, summary.getBestPopulation());
+
+		summary.add(0, 2);
+		summary.add(0, 400);
+		summary.add(1, 1);
+		summary.add(1, 3);
+		summary.add(1, Double.NaN);
+
+		PopulationSummary other = new PopulationSummary(samples);
+		other.add(1, 5);
+		summary.merge(other);
+
+		assertEquals(2, summary.getSnps(0));
+		assertEquals(201.0, summary.getMeanChisq(0));
+		assertEquals(1, summary.getOutliers(0));
+		assertEquals(3, summary.getSnps(1));
+		assertEquals(3.0, summary.getMeanChisq(1));
+		assertEquals(0, summary.getOutliers(1));
+		assertTrue(Double.isNaN(summary.getMeanChisq(2)));
+		assertEquals(1, summary.getBestPopulation());
+	}
+
+}
@@ -0,0 +1,108 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import genepi.imputationserver.steps.vcf.VCFLineParser;
+import genepi.imputationserver.steps.vcf.VcfChunk;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class SharedChunkFileTest extends TestCase {
+
+	private static final List<String> HEADER = Arrays.asList("##fileformat=VCFv4.2",
+			"#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1");
+
+	@Test
+	public void testRangesSkipRecordsOfNeighbours() throws Exception {
+
+		File file = File.createTempFile("chunks", ".vcf.gz");
+		VcfChunk a = new VcfChunk();
+		VcfChunk b = new VcfChunk();
+		VcfChunk c = new VcfChunk();
+
+		// record 3 is only in chunk b, e.g. a site that is not in the reference panel
+		SharedChunkFile sharedFile = new SharedChunkFile(file.getAbsolutePath(), 5, false, HEADER);
+		writeChunks(sharedFile, new int[][] { { 0, 1, 2, 4, 5 }, { 3, 4, 5, 6, 7, 8 }, { 7, 8, 9 } }, a, b, c);
+		sharedFile.close(Arrays.asList(a, b, c));
+
+		assertEquals(4, a.getOffsets().length);
+		assertEquals(records(0, 1, 2, 4, 5), readRanges(file, a.getOffsets()));
+		assertEquals(records(3, 4, 5, 6, 7, 8), readRanges(file, b.getOffsets()));
+		assertEquals(records(7, 8, 9), readRanges(file, c.getOffsets()));
+		assertEquals(records(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), readRanges(file, new long[] { 0, Long.MAX_VALUE }));
+		assertTrue(new File(file.getAbsolutePath() + ".tbi").exists());
+		assertFalse(new File(file.getAbsolutePath() + ".records").exists());
+
+		file.delete();
+		new File(file.getAbsolutePath() + ".tbi").delete();
+	}
+
+	@Test
+	public void testRecordsOfExcludedChunksAreDropped() throws Exception {
+
+		File file = File.createTempFile("chunks", ".vcf.gz");
+		VcfChunk a = new VcfChunk();
+		VcfChunk b = new VcfChunk();
+		VcfChunk c = new VcfChunk();
+
+		// b is excluded, records 3 and 6 are only in b
+		SharedChunkFile sharedFile = new SharedChunkFile(file.getAbsolutePath(), 5, true, HEADER);
+		writeChunks(sharedFile, new int[][] { { 0, 1, 2, 4, 5 }, { 3, 4, 5, 6, 7, 8 }, { 7, 8, 9 } }, a, b, c);
+		sharedFile.close(Arrays.asList(a, c));
+
+		assertEquals(2, a.getOffsets().length);
+		assertEquals(records(0, 1, 2, 4, 5), readRanges(file, a.getOffsets()));
+		assertEquals(records(7, 8, 9), readRanges(file, c.getOffsets()));
+		assertNull(b.getOffsets());
+		assertEquals(records(0, 1, 2, 4, 5, 7, 8, 9), readRanges(file, new long[] { 0, Long.MAX_VALUE }));
+
+		file.delete();
+		new File(file.getAbsolutePath() + ".tbi").delete();
+	}
+
+	// writes the records in file order to all chunks that contain them
+	private void writeChunks(SharedChunkFile sharedFile, int[][] records, VcfChunk... chunks) throws Exception {
+		VCFLineParser parser = new VCFLineParser(1);
+		for (int record = 0; record < 10; record++) {
+			for (int i = 0; i < chunks.length; i++) {
+				if (Arrays.binarySearch(records[i], record) >= 0) {
+					sharedFile.write(parser.parseLine(record(record)), record, chunks[i]);
+				}
+			}
+		}
+	}
+
+	private String record(int record) {
+		return "1\t" + (record + 1) * 100 + "\trs" + record + "\tA\tC\t.\tPASS\t.\tGT\t0|1";
+	}
+
+	private List<String> records(int... records) {
+		List<String> lines = new ArrayList<String>();
+		for (int record : records) {
+			lines.add(record(record));
+		}
+		return lines;
+	}
+
+	// records in the ranges of virtual offsets, header lines are skipped
+	private List<String> readRanges(File file, long[] offsets) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		BlockCompressedInputStream in = new BlockCompressedInputStream(file);
+		for (int i = 0; i < offsets.length; i += 2) {
+			in.seek(offsets[i]);
+			String line;
+			while (in.getFilePointer() < offsets[i + 1] && (line = in.readLine()) != null) {
+				if (!line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		}
+		in.close();
+		return lines;
+	}
+
+}
@@ -208,6 +208,61 @@ public class VCFLineParserTest extends TestCase {
 		assertEquals(true, variantContext.isIndel());
 	}
 	
+	public void testGtOnlyFormat() throws IOException {
+
+		int samples = 5;
+		String line = "20	14370	rs6054257	G	A	29	PASS	.	GT	0|0	1|0	1|1	.|.	0/1";
+
+		VCFLineParser parser = new VCFLineParser(samples);
+		MinimalVariantContext variantContext = parser.parseLine(line);
+
+		assertEquals(samples, variantContext.getNSamples());
+		assertEquals(2, variantContext.getHetCount());
+		assertEquals(1, variantContext.getHomRefCount());
+		assertEquals(1, variantContext.getHomVarCount());
+		assertEquals(1, variantContext.getNoCallCount());
+		assertEquals(true, variantContext.isCalled(2));
+		assertEquals(false, variantContext.isCalled(3));
+
+		// haploid genotypes and multi-digit alleles use the generic parser
+		line = "20	14370	rs6054257	G	A	29	PASS	.	GT	0	1	10|1	.	0|1";
+		variantContext = parser.parseLine(line);
+
+		assertEquals(samples, variantContext.getNSamples());
+		assertEquals(1, variantContext.getHetCount());
+		assertEquals(1, variantContext.getHomRefCount());
+		assertEquals(2, variantContext.getHomVarCount());
+		assertEquals(1, variantContext.getNoCallCount());
+		assertEquals(false, variantContext.isCalled(3));
+
+	}
+
+	public void testDifferentNumberOfSamples() throws IOException {
+
+		int samples = 4;
+		String line = "20	14370	rs6054257	G	A	29	PASS	NS=3;DP=14;AF=0.5;DB;H2	GT	0/0	1/0	1/1";
+
+		VCFLineParser parser = new VCFLineParser(samples);
+
+		// the number of samples is counted without scanning genotypes
+		MinimalVariantContext variantContext = parser.parseLine(line);
+		assertEquals(14370, variantContext.getStart());
+		assertEquals(3, variantContext.getNSamples());
+		assertEquals(1, variantContext.getHetCount());
+
+	}
+
+	public void testUnphasedGenotypes() throws IOException {
+
+		VCFLineParser parser = new VCFLineParser(3);
+
+		assertFalse(parser.parseLine("20	14370	rs1	G	A	29	PASS	.	GT	0|0	1|0	1|1").hasUnphasedGenotypes());
+		assertTrue(parser.parseLine("20	14371	rs2	G	A	29	PASS	.	GT	0|0	1/0	1|1").hasUnphasedGenotypes());
+		assertFalse(parser.parseLine("20	14372	rs3	G	A	29	PASS	.	GT:DS	0|0:0	1|0:1	1|1:2").hasUnphasedGenotypes());
+		assertTrue(parser.parseLine("20	14373	rs4	G	A	29	PASS	.	GT:DS	0|0:0	1|0:1	1/1:2").hasUnphasedGenotypes());
+
+	}
+
 	//TODO: check / and | and no 0 and 1
 
 }
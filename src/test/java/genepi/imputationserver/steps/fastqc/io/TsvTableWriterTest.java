@@ -0,0 +1,76 @@
+package genepi.imputationserver.steps.fastqc.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TsvTableWriterTest extends TestCase {
+
+	@Test
+	public void testFormatsLikeCsvTableWriter() throws Exception {
+
+		File file = File.createTempFile("table", ".txt");
+
+		TsvTableWriter writer = new TsvTableWriter(file.getAbsolutePath());
+		writer.setColumns("ID", "POS", "AAF", "REF_AAF", "REF", "INFO");
+		writer.write("rs1");
+		writer.write(Integer.MIN_VALUE);
+		writer.write((double) 0.1f);
+		writer.write(0.1f);
+		writer.write('A');
+		writer.write("Allele \"switch\"");
+		writer.next();
+		writer.write((String) null);
+		writer.write(120);
+		writer.write(1.0E-5);
+		writer.write(Float.NaN);
+		writer.write('"');
+		writer.write("");
+		writer.next();
+		writer.close();
+
+		String expected = "ID\tPOS\tAAF\tREF_AAF\tREF\tINFO\n" + "rs1\t" + Integer.MIN_VALUE + "\t"
+				+ Double.toString(0.1f) + "\t0.1\tA\tAllele \"\"switch\"\"\n" + "\t120\t1.0E-5\tNaN\t\"\"\t\n";
+		assertEquals(expected, new String(readAll(new FileInputStream(file))));
+
+		file.delete();
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+
+		File file = File.createTempFile("table", ".txt.gz");
+
+		TsvTableWriter writer = new TsvTableWriter(file.getAbsolutePath(), true);
+		writer.setColumns("CHROM", "POS");
+		StringBuilder expected = new StringBuilder("CHROM\tPOS\n");
+		for (int i = 0; i < 100000; i++) {
+			writer.write("20");
+			writer.write(i * 31);
+			writer.next();
+			expected.append("20\t").append(i * 31).append('\n');
+		}
+		writer.close();
+
+		assertEquals(expected.toString(), new String(readAll(new GZIPInputStream(new FileInputStream(file)))));
+
+		file.delete();
+	}
+
+	private byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,119 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import genepi.imputationserver.util.RefPanel;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+public class BinarySitesFileReaderTest extends TestCase {
+
+    @Test
+    public void testConvertAndRead() throws Exception {
+        String output = "test-data/tmp/hapmap_r22.chr1.CEU.hg19_impute.legend.gz" + BinarySitesFile.EXTENSION;
+        new File(output).getParentFile().mkdirs();
+        BinarySitesFile.convert("test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz", output);
+
+        BinarySitesFileReader reader = new BinarySitesFileReader(output, "eur");
+        List<SitesEntry> sites = reader.findByPosition("1", 1060174);
+        assertEquals(1, sites.size());
+        assertEquals("rs7548798", sites.get(0).getRsId());
+        assertEquals('C', sites.get(0).getRefAllele());
+        assertEquals('T', sites.get(0).getAltAllele());
+        assertTrue(sites.get(0).hasFrequencies());
+        assertEquals(0.375f, sites.get(0).getAltFrequency());
+
+        assertEquals(0, reader.findByPosition("1", 1060175).size());
+        assertEquals(0, reader.findByPosition("2", 1060174).size());
+        reader.close();
+
+        new File(output).delete();
+    }
+
+    @Test
+    public void testExceptionAllelesAndPopulations() throws Exception {
+        String input = "test-data/tmp/sites-populations.txt";
+        new File(input).getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(input);
+        writer.write("ID\tCHROM\tPOS\tREF\tALT\tAAF_EUR\tAAF_AFR\tAAF_EAS\n");
+        writer.write("rs1\t20\t100\tA\tC\t0.1\t0.2\t.\n");
+        writer.write("rs2\t20\t200\tI\tD\t0.3\t.\t0.5\n");
+        writer.write("rs3\t20\t200\tG\tT\t0.4\t0.6\t0.7\n");
+        writer.write("rs4\t20\t300\tAT\t-\t0.8\t0.9\t1.0\n");
+        writer.write("rs5\t20\t400\tT\tG\t0.0\t0.1\t0.2\n");
+        writer.close();
+        String output = input + BinarySitesFile.EXTENSION;
+        BinarySitesFile.convert(input, output);
+
+        SitesFileReader reader = new BinarySitesFileReader(output, "afr");
+        reader.setAllPopulations(true);
+        assertEquals(3, reader.getPopulations().length);
+        assertEquals("EUR", reader.getPopulations()[0]);
+        assertEquals("AFR", reader.getPopulations()[1]);
+        assertEquals("EAS", reader.getPopulations()[2]);
+
+        List<SitesEntry> sites = reader.findByPosition("20", 100);
+        assertEquals(1, sites.size());
+        assertEquals('A', sites.get(0).getRefAllele());
+        assertEquals('C', sites.get(0).getAltAllele());
+        assertEquals(0.2f, sites.get(0).getAltFrequency());
+        assertEquals(0.1f, sites.get(0).getPopulationFrequencies()[0]);
+        assertTrue(Float.isNaN(sites.get(0).getPopulationFrequencies()[2]));
+
+        // non-ACGT alleles are stored as exceptions
+        sites = reader.findByPosition("20", 200);
+        assertEquals(2, sites.size());
+        assertEquals("rs2", sites.get(0).getRsId());
+        assertEquals('I', sites.get(0).getRefAllele());
+        assertEquals('D', sites.get(0).getAltAllele());
+        assertFalse(sites.get(0).hasFrequencies());
+        assertEquals(0.5f, sites.get(0).getPopulationFrequencies()[2]);
+        assertEquals("rs3", sites.get(1).getRsId());
+        assertEquals('G', sites.get(1).getRefAllele());
+        assertEquals('T', sites.get(1).getAltAllele());
+        assertEquals(0.6f, sites.get(1).getAltFrequency());
+
+        sites = reader.findByPosition("20", 300);
+        assertEquals('A', sites.get(0).getRefAllele());
+        assertEquals('-', sites.get(0).getAltAllele());
+        assertEquals(1.0f, sites.get(0).getPopulationFrequencies()[2]);
+
+        sites = reader.findByPosition("20", 400);
+        assertEquals('T', sites.get(0).getRefAllele());
+        assertEquals('G', sites.get(0).getAltAllele());
+        assertEquals(0.0f, sites.get(0).getPopulationFrequencies()[0]);
+        reader.close();
+
+        new File(input).delete();
+        new File(output).delete();
+    }
+
+    @Test
+    public void testStaleBinaryFileIsIgnored() throws Exception {
+        String input = "test-data/tmp/sites-chr20.txt";
+        new File(input).getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(input);
+        writer.write("ID\tCHROM\tPOS\tREF\tALT\tAAF_EUR\n");
+        writer.write("rs1\t20\t100\tA\tC\t0.1\n");
+        writer.close();
+        String output = input + BinarySitesFile.EXTENSION;
+        BinarySitesFile.convert(input, output);
+
+        assertTrue(BinarySitesFile.isCurrent(output, input));
+        assertEquals(output, RefPanel.getSites("test-data/tmp/sites-chr$chr.txt", "20"));
+
+        // text file changed after the conversion
+        writer = new FileWriter(input, true);
+        writer.write("rs2\t20\t200\tA\tC\t0.2\n");
+        writer.close();
+        assertFalse(BinarySitesFile.isCurrent(output, input));
+        assertEquals(input, RefPanel.getSites("test-data/tmp/sites-chr$chr.txt", "20"));
+
+        new File(input).delete();
+        new File(output).delete();
+    }
+
+}
@@ -0,0 +1,139 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SitesCacheTest extends TestCase {
+
+    @Test
+    public void testConvertAndEvict() throws Exception {
+        File directory = new File("test-data/tmp/sites-cache");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        // leftovers of a crashed conversion
+        new File(directory, "0123.lock").createNewFile();
+        new File(directory, "0123.bin.positions.tmp").createNewFile();
+
+        SitesCache cache = new SitesCache(directory.getAbsolutePath(), 0);
+        SitesFileReader reader = cache.open(
+                "test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz", "eur");
+        assertTrue(reader instanceof BinarySitesFileReader);
+        List<SitesEntry> sites = reader.findByPosition("1", 1060174);
+        assertEquals(1, sites.size());
+        assertEquals("rs7548798", sites.get(0).getRsId());
+        reader.close();
+
+        // the only entry is kept although the cache is too small
+        String[] files = directory.list();
+        assertEquals(3, files.length);
+        for (String file : files) {
+            assertFalse(file.startsWith("0123."));
+        }
+
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testFileWithSeveralChromosomes() throws Exception {
+        File directory = new File("test-data/tmp/sites-cache");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        File sites = new File("test-data/tmp/sites-cache-input.txt");
+        FileWriter writer = new FileWriter(sites);
+        writer.write("ID\tCHROM\tPOS\tREF\tALT\tAAF_EUR\n");
+        writer.write("rs1\t1\t100\tA\tC\t0.1\n");
+        writer.write("rs2\t2\t100\tA\tC\t0.2\n");
+        writer.close();
+
+        SitesCache cache = new SitesCache(directory.getAbsolutePath(), 1024 * 1024);
+        assertNull(cache.open(sites.getAbsolutePath(), "eur"));
+        for (String file : directory.list()) {
+            assertFalse(file.endsWith(".tmp"));
+        }
+
+        sites.delete();
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testOtherErrorsAreNotRemembered() throws Exception {
+        File directory = new File("test-data/tmp/sites-cache");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        File sites = new File("test-data/tmp/sites-cache-input.txt");
+        FileWriter writer = new FileWriter(sites);
+        writer.write("ID\tCHROM\tREF\tALT\tAAF_EUR\n");
+        writer.write("rs1\t1\tA\tC\t0.1\n");
+        writer.close();
+
+        // a missing column is no reason to skip the file silently
+        SitesCache cache = new SitesCache(directory.getAbsolutePath(), 1024 * 1024);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.open(sites.getAbsolutePath(), "eur");
+                fail("IOException expected");
+            } catch (IOException e) {
+                assertFalse(e instanceof BinarySitesFile.UnsupportedFileException);
+            }
+        }
+
+        sites.delete();
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testOpenFromSeveralThreads() throws Exception {
+        File directory = new File("test-data/tmp/sites-cache");
+        deleteDirectory(directory);
+        directory.mkdirs();
+
+        final SitesCache cache = new SitesCache(directory.getAbsolutePath(), 0);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        SitesFileReader reader = cache.open(
+                                "test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz",
+                                "eur");
+                        assertEquals(1, reader.findByPosition("1", 1060174).size());
+                        reader.close();
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+
+        deleteDirectory(directory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+}
@@ -3,6 +3,9 @@ package genepi.imputationserver.steps.fastqc.legend;
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 
 public class SitesFileReaderTest extends TestCase {
@@ -15,4 +18,114 @@ public class SitesFileReaderTest extends TestCase {
         fileReader.close();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCursorEqualsQuery() throws Exception {
+        String filename = "test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz";
+        SitesFileReader cursorReader = new SitesFileReader(filename, "eur");
+        SitesFileReader queryReader = new SitesFileReader(filename, "eur");
+
+        // ascending positions, duplicates, a large gap and a step backwards
+        int[] positions = new int[]{568527, 568527, 600000, 721290, 4366890, 4367389, 4367389, 721290, 1};
+        for (int position : positions) {
+            assertSameEntries(queryReader.query("1", position), cursorReader.findByPosition("1", position));
+        }
+        for (int position = 4366000; position < 4500000; position += 17) {
+            assertSameEntries(queryReader.query("1", position), cursorReader.findByPosition("1", position));
+        }
+        assertEquals(0, cursorReader.findByPosition("2", 4366890).size());
+
+        cursorReader.close();
+        queryReader.close();
+    }
+
+    @Test
+    public void testFilterGivesSameResults() throws Exception {
+        // the filter is stored next to the sites file
+        File dir = Files.createTempDirectory("sites").toFile();
+        File sites = new File(dir, "hapmap_r22.chr1.CEU.hg19_impute.legend.gz");
+        Files.copy(new File("test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz").toPath(), sites.toPath());
+        Files.copy(new File("test-data/configs/hapmap-chr1/ref-panels/hapmap_r22.chr1.CEU.hg19_impute.legend.gz.tbi").toPath(), new File(sites.getAbsolutePath() + ".tbi").toPath());
+        File filterFile = new File(sites.getAbsolutePath() + SitesFilter.EXTENSION);
+
+        // created by the first lookup
+        assertTrue(assertSameResultsWithFilter(sites.getAbsolutePath()) > 0);
+        assertTrue(filterFile.exists());
+
+        // loaded from the file
+        assertNotNull(SitesFilter.load(sites.getAbsolutePath()));
+        assertSameResultsWithFilter(sites.getAbsolutePath());
+
+        // a changed sites file gets a new filter
+        assertTrue(sites.setLastModified(sites.lastModified() - 10000));
+        assertNull(SitesFilter.load(sites.getAbsolutePath()));
+        assertSameResultsWithFilter(sites.getAbsolutePath());
+        assertNotNull(SitesFilter.load(sites.getAbsolutePath()));
+
+        filterFile.delete();
+        new File(sites.getAbsolutePath() + ".tbi").delete();
+        sites.delete();
+        dir.delete();
+    }
+
+    // compares lookups with and without filter, returns the number of positions with entries
+    private int assertSameResultsWithFilter(String filename) throws Exception {
+        SitesFileReader reader = new SitesFileReader(filename, "eur");
+        SitesFileReader filterReader = new SitesFileReader(filename, "eur");
+        filterReader.setFilter(true);
+
+        int found = 0;
+        int[] positions = new int[]{568527, 568528, 600000, 721290, 4366890, 4367389, 1};
+        for (int position : positions) {
+            List<SitesEntry> expected = reader.query("1", position);
+            assertSameEntries(expected, filterReader.findByPosition("1", position));
+            found += expected.isEmpty() ? 0 : 1;
+        }
+        for (int position = 4366000; position < 4500000; position += 17) {
+            List<SitesEntry> expected = reader.query("1", position);
+            assertSameEntries(expected, filterReader.findByPosition("1", position));
+            found += expected.isEmpty() ? 0 : 1;
+        }
+        assertEquals(0, filterReader.findByPosition("2", 4366890).size());
+
+        reader.close();
+        filterReader.close();
+        return found;
+    }
+
+    @Test
+    public void testParseFloatEqualsFloatParseFloat() throws Exception {
+        SitesFileReader reader = new SitesFileReader();
+        reader.setAllPopulations(true);
+        reader.parseHeader("ID\tREF\tALT\tAAF_ALL");
+
+        String[] values = new String[]{"0", "0.0", "-0", "+0.5", "-0.5", "1.", ".5", "-.5", "0.1", "0.333333",
+                "0.1234567891", "0.12345678912", "0.000000000001", "16777216", "16777217", "16777215.5",
+                "1677721.65", "-16777216", "+16777217", "1e-3", "0.9999999999", "99999999999", "007.50"};
+        for (String value : values) {
+            SitesEntry entry = reader.parseLine("rs1\tA\tC\t" + value);
+            assertEquals(value, Float.floatToIntBits(Float.parseFloat(value)),
+                    Float.floatToIntBits(entry.getPopulationFrequencies()[0]));
+        }
+    }
+
+    @Test
+    public void testLineWithMissingColumns() throws Exception {
+        SitesFileReader reader = new SitesFileReader();
+        reader.setAllPopulations(true);
+        reader.parseHeader("ID\tREF\tALT\tAAF_ALL");
+        try {
+            reader.parseLine("rs1\tA\tC");
+            fail("short line not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("rs1\tA\tC"));
+        }
+    }
+
+    private void assertSameEntries(List<SitesEntry> expected, List<SitesEntry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getRsId(), actual.get(i).getRsId());
+        }
+    }
+
+}
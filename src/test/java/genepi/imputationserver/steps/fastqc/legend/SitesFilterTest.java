@@ -0,0 +1,67 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class SitesFilterTest extends TestCase {
+
+    @Test
+    public void testNoFalseNegatives() {
+        Random random = new Random(42);
+        Set<Integer> positions = new HashSet<Integer>();
+        SitesFilter filter = SitesFilter.create(100000);
+        for (int i = 0; i < 100000; i++) {
+            int position = random.nextInt(100000000);
+            positions.add(position);
+            filter.add(SitesFilter.hash("1", position));
+        }
+
+        for (int position : positions) {
+            assertTrue(filter.mightContain("1", position));
+        }
+
+        int falsePositives = 0;
+        int misses = 0;
+        for (int position = 0; position < 1000000; position++) {
+            if (!positions.contains(position)) {
+                misses++;
+                if (filter.mightContain("1", position)) {
+                    falsePositives++;
+                }
+            }
+        }
+        assertTrue(falsePositives < misses * 0.02);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File sites = File.createTempFile("sites", ".legend");
+        FileWriter writer = new FileWriter(sites);
+        writer.write("ID\tCHROM\tPOS\tREF\tALT\n");
+        writer.close();
+
+        SitesFilter filter = SitesFilter.create(2);
+        filter.add(SitesFilter.hash("1", 100));
+        filter.add(SitesFilter.hash("1", 200));
+        assertTrue(filter.save(sites.getAbsolutePath()));
+
+        SitesFilter loaded = SitesFilter.load(sites.getAbsolutePath());
+        assertNotNull(loaded);
+        assertTrue(loaded.mightContain("1", 100));
+        assertTrue(loaded.mightContain("1", 200));
+
+        // filter of a changed sites file is not used
+        sites.setLastModified(sites.lastModified() - 10000);
+        assertNull(SitesFilter.load(sites.getAbsolutePath()));
+
+        new File(sites.getAbsolutePath() + SitesFilter.EXTENSION).delete();
+        sites.delete();
+    }
+
+}
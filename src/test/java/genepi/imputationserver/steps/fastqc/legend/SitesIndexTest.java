@@ -0,0 +1,60 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SitesIndexTest extends TestCase {
+
+    @Test
+    public void testFindMatchesLinearSearch() {
+        Random random = new Random(42);
+        SitesIndex index = new SitesIndex(Long.MAX_VALUE);
+        List<Integer> positions = new ArrayList<Integer>();
+        int position = 1;
+        for (int i = 0; i < 10000; i++) {
+            // some positions have more than one entry
+            position += random.nextInt(3) == 0 ? 0 : random.nextInt(200);
+            positions.add(position);
+            assertTrue(index.add(position, 'A', 'C', "rs" + i, i % 5 == 0 ? Float.NaN : i / 10000f));
+        }
+
+        // ascending, repeated and random lookups with a reused result
+        SitesEntries entries = new SitesEntries();
+        for (int i = 0; i < 20000; i++) {
+            int query = i % 3 == 0 ? random.nextInt(position + 10) : i * (position / 20000);
+            entries.clear();
+            index.find(query, entries);
+            int expected = 0;
+            for (int j = 0; j < positions.size(); j++) {
+                if (positions.get(j) == query) {
+                    assertEquals("rs" + j, entries.get(expected).getRsId());
+                    assertEquals(j % 5 != 0, entries.get(expected).hasFrequencies());
+                    expected++;
+                }
+            }
+            assertEquals(expected, entries.size());
+        }
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        SitesIndex index = new SitesIndex(100 * 1024);
+        boolean added = true;
+        for (int i = 0; i < 100000 && added; i++) {
+            added = index.add(i, 'A', 'C', "rs" + i, 0.5f);
+        }
+        assertFalse(added);
+    }
+
+    @Test
+    public void testUnsortedPositions() {
+        SitesIndex index = new SitesIndex(Long.MAX_VALUE);
+        assertTrue(index.add(10, 'A', 'C', "rs1", 0.5f));
+        assertFalse(index.add(5, 'A', 'C', "rs2", 0.5f));
+    }
+
+}
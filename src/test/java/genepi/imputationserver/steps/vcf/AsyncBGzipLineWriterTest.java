@@ -0,0 +1,54 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.util.Random;
+
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class AsyncBGzipLineWriterTest extends TestCase {
+
+	@Test
+	public void testSameLinesAsBGzipLineWriter() throws Exception {
+
+		File expectedFile = File.createTempFile("expected", ".vcf.gz");
+		File actualFile = File.createTempFile("actual", ".vcf.gz");
+
+		BGzipLineWriter expected = new BGzipLineWriter(expectedFile.getAbsolutePath());
+		AsyncBGzipLineWriter actual = new AsyncBGzipLineWriter(actualFile.getAbsolutePath(), 1, false);
+
+		// short lines and lines larger than a batch
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			int length = i % 10000 == 0 ? 300 * 1024 : random.nextInt(200);
+			byte[] line = new byte[length + 10];
+			for (int j = 0; j < line.length; j++) {
+				line[j] = (byte) ('a' + random.nextInt(26));
+			}
+			expected.write(line, 5, length);
+			actual.write(line, 5, length);
+		}
+		expected.write("last line");
+		actual.write("last line");
+		expected.close();
+		actual.close();
+
+		LineReader expectedReader = new LineReader(expectedFile.getAbsolutePath());
+		LineReader actualReader = new LineReader(actualFile.getAbsolutePath());
+		int lines = 0;
+		while (expectedReader.next()) {
+			assertTrue(actualReader.next());
+			assertEquals(expectedReader.get(), actualReader.get());
+			lines++;
+		}
+		assertFalse(actualReader.next());
+		assertEquals(100001, lines);
+		expectedReader.close();
+		actualReader.close();
+
+		expectedFile.delete();
+		actualFile.delete();
+	}
+
+}
@@ -0,0 +1,131 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class ParallelBGzipInputStreamTest extends TestCase {
+
+	// BGZF block without data, also used as end of file marker
+	private static final byte[] EMPTY_BLOCK = new byte[] { 31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0, 27,
+			0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	@Test
+	public void testSameDataAsBlockCompressedInputStream() throws Exception {
+
+		File file = File.createTempFile("parallel", ".gz");
+		byte[] expected = writeBlocks(file, 3000);
+
+		for (int threads : new int[] { 1, 2, 4 }) {
+			byte[] parallel = readAll(new ParallelBGzipInputStream(file.getAbsolutePath(), threads));
+			assertTrue(Arrays.equals(expected, parallel));
+		}
+		assertTrue(Arrays.equals(expected, readAll(new BlockCompressedInputStream(file))));
+
+		// empty blocks between blocks with data are skipped
+		byte[] data = readAll(new FileInputStream(file));
+		int middle = findBlock(data, data.length / 2);
+		ByteArrayOutputStream withEmptyBlocks = new ByteArrayOutputStream();
+		withEmptyBlocks.write(EMPTY_BLOCK);
+		withEmptyBlocks.write(data, 0, middle);
+		withEmptyBlocks.write(EMPTY_BLOCK);
+		withEmptyBlocks.write(EMPTY_BLOCK);
+		withEmptyBlocks.write(data, middle, data.length - middle);
+		write(file, withEmptyBlocks.toByteArray());
+
+		assertTrue(Arrays.equals(expected, readAll(new ParallelBGzipInputStream(file.getAbsolutePath(), 2))));
+
+		file.delete();
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+
+		File file = File.createTempFile("parallel", ".gz");
+		writeBlocks(file, 0);
+
+		assertEquals(0, readAll(new ParallelBGzipInputStream(file.getAbsolutePath(), 2)).length);
+		assertEquals(0, readAll(new BlockCompressedInputStream(file)).length);
+
+		file.delete();
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+
+		File file = File.createTempFile("parallel", ".gz");
+		writeBlocks(file, 3000);
+		byte[] data = readAll(new FileInputStream(file));
+
+		// in a block header and in the compressed data of a block
+		int block = findBlock(data, data.length / 2);
+		for (int length : new int[] { block + 5, block + 100 }) {
+			write(file, Arrays.copyOf(data, length));
+			try {
+				readAll(new ParallelBGzipInputStream(file.getAbsolutePath(), 2));
+				fail("truncated file not detected");
+			} catch (IOException e) {
+			}
+		}
+
+		file.delete();
+	}
+
+	// writes lines of compressible and random data, returns the uncompressed data
+	private byte[] writeBlocks(File file, int lines) throws IOException {
+		Random random = new Random(42);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ParallelBGzipOutputStream out = new ParallelBGzipOutputStream(file.getAbsolutePath(), 5);
+		for (int i = 0; i < lines; i++) {
+			byte[] line = new byte[random.nextInt(500)];
+			for (int j = 0; j < line.length; j++) {
+				line[j] = (byte) (i % 3 == 0 ? random.nextInt(256) : 'A' + random.nextInt(4));
+			}
+			out.write(line);
+			expected.write(line);
+		}
+		out.close();
+		return expected.toByteArray();
+	}
+
+	// offset of the first block header at or after offset
+	private int findBlock(byte[] data, int offset) {
+		for (int i = offset; i + 14 < data.length; i++) {
+			if (data[i] == 31 && data[i + 1] == -117 && data[i + 2] == 8 && data[i + 3] == 4 && data[i + 12] == 66
+					&& data[i + 13] == 67) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void write(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+	}
+
+	private byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+}
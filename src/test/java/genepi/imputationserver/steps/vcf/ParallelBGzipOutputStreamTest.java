@@ -0,0 +1,53 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class ParallelBGzipOutputStreamTest extends TestCase {
+
+	@Test
+	public void testReadWrittenBlocks() throws Exception {
+
+		File file = File.createTempFile("parallel", ".gz");
+
+		// compressible and random data, the random part is stored
+		Random random = new Random(42);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ParallelBGzipOutputStream out = new ParallelBGzipOutputStream(file.getAbsolutePath(), 5);
+		for (int i = 0; i < 5000; i++) {
+			byte[] line = new byte[random.nextInt(500)];
+			for (int j = 0; j < line.length; j++) {
+				line[j] = (byte) (i % 3 == 0 ? random.nextInt(256) : 'A' + random.nextInt(4));
+			}
+			out.write(line);
+			expected.write(line);
+		}
+		out.close();
+
+		assertTrue(ParallelBGzipInputStream.isBGzipFile(file.getAbsolutePath()));
+		assertTrue(Arrays.equals(expected.toByteArray(), readAll(new ParallelBGzipInputStream(file.getAbsolutePath(), 2))));
+		assertTrue(Arrays.equals(expected.toByteArray(), readAll(new GZIPInputStream(new FileInputStream(file)))));
+
+		file.delete();
+	}
+
+	private byte[] readAll(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
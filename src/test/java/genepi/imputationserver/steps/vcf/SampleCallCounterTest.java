@@ -0,0 +1,38 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SampleCallCounterTest extends TestCase {
+
+	public void testCountsMatchPerSampleLoop() {
+
+		int samples = 150;
+		Random random = new Random(42);
+
+		MinimalVariantContext variant = new MinimalVariantContext(samples);
+		SampleCallCounter counter = new SampleCallCounter(samples);
+		int[] expected = new int[samples];
+
+		// more variants than the bit-planes can hold without expanding
+		for (int v = 0; v < 70000; v++) {
+			for (int i = 0; i < samples; i++) {
+				boolean called = random.nextInt(10) > 0;
+				variant.setCalled(i, called);
+				if (called) {
+					expected[i]++;
+				}
+			}
+			counter.add(variant.getCalledMask());
+		}
+
+		int[] counts = counter.getCounts();
+		assertEquals(samples, counts.length);
+		for (int i = 0; i < samples; i++) {
+			assertEquals(expected[i], counts[i]);
+		}
+
+	}
+
+}
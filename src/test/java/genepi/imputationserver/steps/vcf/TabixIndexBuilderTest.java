@@ -0,0 +1,126 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TabixIndexBuilderTest extends TestCase {
+
+	@Test
+	public void testLinearIndexPointsToRecords() throws Exception {
+
+		File file = File.createTempFile("chunk", ".vcf.gz");
+		String filename = file.getAbsolutePath();
+
+		BGzipLineWriter writer = new BGzipLineWriter(filename, 5, true);
+		writer.write("##fileformat=VCFv4.2");
+		writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1");
+		for (String chromosome : new String[] { "1", "2" }) {
+			for (int i = 0; i < 20000; i++) {
+				writer.write(chromosome + "\t" + (1000 + i * 50) + "\trs" + i + "\tA\tC\t.\tPASS\t.\tGT\t0|1");
+			}
+		}
+		writer.close();
+
+		DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(filename + ".tbi")));
+		assertEquals('T', in.readByte());
+		assertEquals('B', in.readByte());
+		assertEquals('I', in.readByte());
+		assertEquals(1, in.readByte());
+		assertEquals(2, readInt(in));
+		assertEquals(2, readInt(in));
+		for (int i = 0; i < 5; i++) {
+			readInt(in);
+		}
+		byte[] names = new byte[readInt(in)];
+		in.readFully(names);
+		assertEquals("1\u00002\u0000", new String(names, "US-ASCII"));
+
+		for (String chromosome : new String[] { "1", "2" }) {
+			int bins = readInt(in);
+			assertTrue(bins > 0);
+			for (int i = 0; i < bins; i++) {
+				readInt(in);
+				int chunks = readInt(in);
+				for (int j = 0; j < chunks; j++) {
+					assertTrue(readLong(in) < readLong(in));
+				}
+			}
+			// first window starts at position 1000, window 2 at 2 * 16384 + 1
+			int intervals = readInt(in);
+			assertEquals((1000 + 19999 * 50 - 1) / 16384 + 1, intervals);
+			long first = readLong(in);
+			readLong(in);
+			long third = readLong(in);
+			assertEquals(chromosome + "\t1000\trs0", readLine(filename, first).substring(0, chromosome.length() + 9));
+			assertEquals(chromosome + "\t32800\t", readLine(filename, third).substring(0, chromosome.length() + 7));
+			for (int i = 3; i < intervals; i++) {
+				readLong(in);
+			}
+		}
+		in.close();
+
+		file.delete();
+		new File(filename + ".tbi").delete();
+	}
+
+	@Test
+	public void testUnsortedFile() throws Exception {
+
+		TabixIndexBuilder builder = new TabixIndexBuilder();
+		byte[] line1 = "1\t200\t.\tA\tC".getBytes();
+		byte[] line2 = "1\t100\t.\tA\tC".getBytes();
+		builder.add(line1, 0, line1.length, 0);
+		try {
+			builder.add(line2, 0, line2.length, line1.length + 1);
+			fail("unsorted position not detected");
+		} catch (IOException e) {
+		}
+
+		builder = new TabixIndexBuilder();
+		byte[] line3 = "2\t300\t.\tA\tC".getBytes();
+		builder.add(line1, 0, line1.length, 0);
+		builder.add(line3, 0, line3.length, line1.length + 1);
+		try {
+			builder.add(line1, 0, line1.length, line1.length + line3.length + 2);
+			fail("split chromosome not detected");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testBins() {
+		assertEquals(4681, TabixIndexBuilder.reg2bin(0, 1));
+		assertEquals(4682, TabixIndexBuilder.reg2bin(16384, 16385));
+		assertEquals(585, TabixIndexBuilder.reg2bin(16383, 16385));
+		assertEquals(0, TabixIndexBuilder.reg2bin(0, 1 << 26 + 1));
+	}
+
+	// reads the line at a virtual offset
+	private String readLine(String filename, long virtualOffset) throws IOException {
+		InputStream file = new FileInputStream(filename);
+		file.skip(virtualOffset >>> 16);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(file)));
+		reader.skip(virtualOffset & 0xffff);
+		String line = reader.readLine();
+		reader.close();
+		return line;
+	}
+
+	private int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private long readLong(DataInputStream in) throws IOException {
+		return Long.reverseBytes(in.readLong());
+	}
+
+}
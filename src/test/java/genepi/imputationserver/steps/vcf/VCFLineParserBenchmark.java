@@ -0,0 +1,90 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Microbenchmark of the genotype parsing in VCFLineParser. Not part of the
+ * test run, start it with:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes genepi.imputationserver.steps.vcf.VCFLineParserBenchmark [samples...]
+ * </pre>
+ *
+ * Phased GT-only records are parsed with the fixed-stride path. The same
+ * records with a haploid first sample break the pattern right away and are
+ * parsed by the generic loop.
+ */
+public class VCFLineParserBenchmark {
+
+	private static final int[] SAMPLES = { 10000, 50000, 100000 };
+
+	private static final int RECORDS = 100;
+
+	private static final int WARMUP = 5;
+
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) throws Exception {
+
+		int[] samples = SAMPLES;
+		if (args.length > 0) {
+			samples = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				samples[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("samples\tgeneric (us/record)\tfixed stride (us/record)");
+		for (int n : samples) {
+			byte[][] fixed = createRecords(n, false);
+			byte[][] generic = createRecords(n, true);
+			double genericTime = measure(n, generic);
+			double fixedTime = measure(n, fixed);
+			System.out.println(n + "\t" + String.format("%.1f", genericTime) + "\t" + String.format("%.1f", fixedTime));
+		}
+
+	}
+
+	// best time per record of all rounds in microseconds
+	private static double measure(int samples, byte[][] records) throws Exception {
+		VCFLineParser parser = new VCFLineParser(samples);
+		long best = Long.MAX_VALUE;
+		long checksum = 0;
+		for (int round = 0; round < WARMUP + ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (byte[] record : records) {
+				MinimalVariantContext snp = parser.parseLine(record, 0, record.length);
+				checksum += snp.getHetCount();
+			}
+			long time = System.nanoTime() - start;
+			if (round >= WARMUP) {
+				best = Math.min(best, time);
+			}
+		}
+		if (checksum == 0) {
+			throw new IllegalStateException("No genotypes parsed.");
+		}
+		return best / 1000.0 / records.length;
+	}
+
+	private static byte[][] createRecords(int samples, boolean haploidFirst) {
+		Random random = new Random(42);
+		byte[][] records = new byte[RECORDS][];
+		for (int r = 0; r < RECORDS; r++) {
+			StringBuilder line = new StringBuilder();
+			line.append("20\t" + (r + 1) * 100 + "\trs" + r + "\tA\tC\t.\tPASS\t.\tGT");
+			for (int i = 0; i < samples; i++) {
+				line.append('\t');
+				if (i == 0 && haploidFirst) {
+					line.append(random.nextInt(2));
+				} else {
+					line.append(random.nextInt(2)).append('|').append(random.nextInt(2));
+				}
+			}
+			records[r] = line.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return records;
+	}
+
+}
@@ -0,0 +1,57 @@
+package genepi.imputationserver.util;
+
+import genepi.imputationserver.steps.fastqc.legend.SitesEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class GenomicToolsTest extends TestCase {
+
+	private static final String[] STUDY_ALLELES = new String[] { "A", "C", "G", "T", "a", "N", "-", "AC",
+			"\u0100" };
+
+	private static final char[] REFERENCE_ALLELES = new char[] { 'A', 'C', 'G', 'T', 'a', 'N', '-', '\u0100' };
+
+	@Test
+	public void testClassifyEqualsChecks() {
+
+		int combinations = 0;
+
+		for (String studyRef : STUDY_ALLELES) {
+			for (String studyAlt : STUDY_ALLELES) {
+				for (char legendRef : REFERENCE_ALLELES) {
+					for (char legendAlt : REFERENCE_ALLELES) {
+
+						MinimalVariantContext snp = new MinimalVariantContext(1);
+						snp.setReferenceAllele(studyRef);
+						snp.setAlternateAllele(studyAlt);
+
+						SitesEntry refEntry = new SitesEntry();
+						refEntry.setRefAllele(legendRef);
+						refEntry.setAltAllele(legendAlt);
+
+						int classes = GenomicTools.classify(snp, refEntry);
+						String message = studyRef + "/" + studyAlt + " " + legendRef + "/" + legendAlt;
+
+						assertEquals(message, GenomicTools.match(snp, refEntry), (classes & GenomicTools.MATCH) != 0);
+						assertEquals(message, GenomicTools.alleleSwitch(snp, refEntry),
+								(classes & GenomicTools.ALLELE_SWITCH) != 0);
+						assertEquals(message, GenomicTools.strandFlip(snp, refEntry),
+								(classes & GenomicTools.STRAND_FLIP) != 0);
+						assertEquals(message, GenomicTools.strandFlipAndAlleleSwitch(snp, refEntry),
+								(classes & GenomicTools.STRAND_FLIP_AND_ALLELE_SWITCH) != 0);
+						assertEquals(message, GenomicTools.complicatedGenotypes(snp, refEntry),
+								(classes & GenomicTools.COMPLICATED_GENOTYPES) != 0);
+						assertEquals(message, GenomicTools.alleleMismatch(snp, refEntry),
+								(classes & GenomicTools.MATCH) == 0);
+						combinations++;
+					}
+				}
+			}
+		}
+
+		assertEquals(STUDY_ALLELES.length * STUDY_ALLELES.length * REFERENCE_ALLELES.length
+				* REFERENCE_ALLELES.length, combinations);
+	}
+
+}